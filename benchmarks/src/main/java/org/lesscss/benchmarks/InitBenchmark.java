@@ -0,0 +1,61 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lesscss.LessCompiler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Initialization of a compiler: evaluating the LESS JavaScript in a new Rhino scope.
+ * <p>
+ * <code>cold</code> measures the first initialization in a fresh JVM, which is what a build tool or a
+ * command line compilation pays. <code>warm</code> measures initializations once the JVM has loaded and
+ * optimized the compiler, which is what a pool pays when it grows.
+ * </p>
+ */
+public class InitBenchmark {
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public LessCompiler cold() {
+        LessCompiler compiler = new LessCompiler();
+        compiler.init();
+        return compiler;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    public LessCompiler warm() {
+        LessCompiler compiler = new LessCompiler();
+        compiler.init();
+        return compiler;
+    }
+}
@@ -0,0 +1,72 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.lesscss.LessSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construction of a <code>LessSource</code>, which reads the file and resolves its imports recursively, and the
+ * checks that decide whether a stylesheet has to be compiled again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LessSourceBenchmark {
+
+    @Param({ "import/less/import.less", "bootstrap-3.1.1/less/bootstrap.less" })
+    public String path;
+
+    private File input;
+    private LessSource source;
+
+    @Setup
+    public void setUp() throws Exception {
+        input = Sources.file(path);
+        source = new LessSource(input);
+    }
+
+    @Benchmark
+    public LessSource construct() throws IOException {
+        return new LessSource(input);
+    }
+
+    @Benchmark
+    public String normalizedContent() {
+        return source.getNormalizedContent();
+    }
+
+    @Benchmark
+    public long lastModifiedIncludingImports() {
+        return source.getLastModifiedIncludingImports();
+    }
+}
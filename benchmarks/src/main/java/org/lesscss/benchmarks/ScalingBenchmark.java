@@ -0,0 +1,110 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.lesscss.LessCompiler;
+import org.lesscss.LessCompilerPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of concurrent compilations at 1 to N threads, with a shared scope compiler and with a pool of compilers.
+ * The total throughput should grow with the number of threads up to the number of cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScalingBenchmark {
+
+    @Param({ "shared", "pool" })
+    public String mode;
+
+    private LessCompiler compiler;
+    private LessCompilerPool pool;
+    private File input;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        input = Sources.file("compatibility/less/mixins.less");
+        if (mode.equals("shared")) {
+            compiler = new LessCompiler();
+            compiler.setSharedScope(true);
+            compiler.init();
+        } else {
+            pool = new LessCompilerPool();
+            pool.setMaxSize(Runtime.getRuntime().availableProcessors());
+            pool.setGrowthThreshold(0);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    private String compile() throws Exception {
+        return compiler != null ? compiler.compile(input, input.getName()) : pool.compile(input);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String threads1() throws Exception {
+        return compile();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public String threads2() throws Exception {
+        return compile();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String threads4() throws Exception {
+        return compile();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String threads8() throws Exception {
+        return compile();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String threadsMax() throws Exception {
+        return compile();
+    }
+}
@@ -0,0 +1,66 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.lesscss.LessCompiler;
+import org.lesscss.LessException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compilation of small stylesheets from the compatibility tests, where the fixed cost of a compilation dominates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SmallCompileBenchmark {
+
+    @Param({ "colors", "css", "mixins", "operations", "variables" })
+    public String name;
+
+    @Param({ "false", "true" })
+    public boolean sharedScope;
+
+    private LessCompiler compiler;
+    private File input;
+
+    @Setup
+    public void setUp() throws Exception {
+        compiler = new LessCompiler();
+        compiler.setSharedScope(sharedScope);
+        compiler.init();
+        input = Sources.file("compatibility/less/" + name + ".less");
+    }
+
+    @Benchmark
+    public String compile() throws LessException {
+        return compiler.compile(input, input.getName());
+    }
+}
@@ -0,0 +1,49 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.benchmarks;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+/**
+ * Locates the LESS sources of the compiler's tests, which the benchmarks compile.
+ * <p>
+ * The directory is taken from the <code>lesscss.sources</code> system property, by default
+ * <code>src/test/resources</code> of the project, looked up from the root of the project or from the
+ * benchmarks directory.
+ * </p>
+ */
+final class Sources {
+
+    private Sources() {
+    }
+
+    static File file(String path) throws FileNotFoundException {
+        File file = new File(directory(), path);
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file + " not found, set lesscss.sources to the src/test/resources directory of the compiler.");
+        }
+        return file;
+    }
+
+    private static File directory() {
+        String directory = System.getProperty("lesscss.sources");
+        if (directory != null) {
+            return new File(directory);
+        }
+        File root = new File("src/test/resources");
+        return root.isDirectory() ? root : new File("../src/test/resources");
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Compiles a JavaScript file to classes like Rhino's jsc -g, but with callbacks to observeInstructionCount, so the
+ * budget of a compilation is checked, see org.lesscss.LessContextFactory. The jsc of Rhino 1.7R4 does not accept
+ * its -observe-instruction-count option.
+ *
+ * Usage: jsc.js <source file> <class name> <output directory>
+ */
+(function (source, className, directory) {
+    var env = new Packages.org.mozilla.javascript.CompilerEnvirons();
+    env.setLanguageVersion(170);
+    env.setGenerateDebugInfo(true);
+    env.setGenerateObserverCount(true);
+
+    var compiler = new Packages.org.mozilla.javascript.optimizer.ClassCompiler(env);
+    var classes = compiler.compileToClassFiles(readFile(source, "UTF-8"), source, 1, className);
+    for (var i = 0; i < classes.length; i += 2) {
+        var file = new java.io.File(directory, String(classes[i]).replace(/\./g, "/") + ".class");
+        file.getParentFile().mkdirs();
+        var out = new java.io.FileOutputStream(file);
+        try {
+            out.write(classes[i + 1]);
+        } finally {
+            out.close();
+        }
+    }
+}(arguments[0], arguments[1], arguments[2]));
@@ -0,0 +1,496 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.lesscss.logging.LessLogger;
+import org.lesscss.logging.LessLoggerFactory;
+
+/**
+ * Compiles LESS sources on a bounded set of background threads.
+ * <p>
+ * The <code>compileAsync</code> methods return immediately with a <code>Future</code> of the CSS, the compilation
+ * itself runs on one of the compiler's threads with its own compiler from a {@link LessCompilerPool} configured like
+ * the template. An optional {@link Callback} is notified when the compilation completes, so callers that must not
+ * block, like event loops, do not have to wait on the <code>Future</code>.
+ * </p>
+ * <p>
+ * Compilations that cannot start right away wait in a queue of limited capacity. When the queue is full the
+ * {@link OverflowPolicy} decides whether the new compilation is rejected or the oldest waiting compilation is shed
+ * to make room for it. The queue depth and the time compilations waited in the queue are available to monitor
+ * the load.
+ * </p>
+ * <h4>Basic code example:</h4>
+ * <pre>
+ * AsyncLessCompiler asyncCompiler = new AsyncLessCompiler(new LessCompiler());
+ * Future&lt;String&gt; css = asyncCompiler.compileAsync(new File("main.less"));
+ * ...
+ * asyncCompiler.shutdown();
+ * </pre>
+ *
+ * @see LessCompilerPool
+ */
+public class AsyncLessCompiler {
+
+    private static final LessLogger logger = LessLoggerFactory.getLogger(AsyncLessCompiler.class);
+
+    /**
+     * What to do with a new compilation when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** The new compilation is rejected with a <code>RejectedExecutionException</code>. */
+        REJECT,
+        /** The compilation that has been waiting the longest fails with a <code>LessException</code> and the new compilation is queued. */
+        SHED_OLDEST
+    }
+
+    /**
+     * Receives the outcome of an asynchronous compilation. It is called on the thread that ran the compilation,
+     * or for a shed compilation on the thread that submitted the compilation that replaced it.
+     */
+    public interface Callback {
+
+        /**
+         * Called when the compilation succeeded.
+         *
+         * @param css The CSS.
+         */
+        void completed(String css);
+
+        /**
+         * Called when the compilation failed, was shed or was cancelled.
+         *
+         * @param cause The <code>LessException</code> or <code>IOException</code> that made the compilation fail,
+         *        or a <code>CancellationException</code> if it was cancelled.
+         */
+        void failed(Throwable cause);
+    }
+
+    private final LessCompilerPool pool;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 100;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+
+    private ThreadPoolExecutor executor;
+    private boolean shutdown = false;
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong totalWaitTime = new AtomicLong();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong shedCount = new AtomicLong();
+
+    /**
+     * Constructs a new <code>AsyncLessCompiler</code> using default configured compilers.
+     */
+    public AsyncLessCompiler() {
+        this(new LessCompiler());
+    }
+
+    /**
+     * Constructs a new <code>AsyncLessCompiler</code> using compilers configured like the template.
+     * <p>
+     * The configuration of the template is copied, later changes to the template do not affect this compiler.
+     * </p>
+     *
+     * @param template The <code>LessCompiler</code> whose configuration is used for the compilers.
+     */
+    public AsyncLessCompiler(LessCompiler template) {
+        if (template == null) {
+            throw new IllegalArgumentException("Template must not be null!");
+        }
+        this.pool = new LessCompilerPool(template);
+    }
+
+    /**
+     * Returns the number of threads that compile.
+     *
+     * @return The number of threads that compile.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of threads that compile. Defaults to the number of available processors.
+     * Must be set before the first compilation.
+     *
+     * @param threads The number of threads that compile.
+     */
+    public synchronized void setThreads(int threads) {
+        checkNotStarted();
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1.");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Returns the number of compilations that can wait for a thread.
+     *
+     * @return The number of compilations that can wait for a thread.
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Sets the number of compilations that can wait for a thread. Defaults to 100. A value of <code>0</code>
+     * only accepts compilations while a thread is idle. Must be set before the first compilation.
+     *
+     * @param queueCapacity The number of compilations that can wait for a thread.
+     */
+    public synchronized void setQueueCapacity(int queueCapacity) {
+        checkNotStarted();
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("Queue capacity must not be negative.");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Returns what is done with a new compilation when the queue is full.
+     *
+     * @return What is done with a new compilation when the queue is full.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Sets what is done with a new compilation when the queue is full. Defaults to {@link OverflowPolicy#REJECT}.
+     *
+     * @param overflowPolicy What is done with a new compilation when the queue is full.
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("Overflow policy must not be null!");
+        }
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Compiles the LESS input <code>String</code> to CSS in the background.
+     *
+     * @param input The LESS input <code>String</code> to compile.
+     * @return The <code>Future</code> of the CSS.
+     * @throws RejectedExecutionException If the queue is full and the overflow policy is {@link OverflowPolicy#REJECT},
+     *         or the compiler has been shut down.
+     */
+    public Future<String> compileAsync(String input) {
+        return compileAsync(input, null, null);
+    }
+
+    /**
+     * Compiles the LESS input <code>String</code> to CSS in the background, but specifies the source name <code>String</code>.
+     *
+     * @param input The LESS input <code>String</code> to compile.
+     * @param name The source's name <code>String</code> to provide better error messages.
+     * @param callback The <code>Callback</code> to notify when the compilation completes, or <code>null</code>.
+     * @return The <code>Future</code> of the CSS.
+     * @throws RejectedExecutionException If the queue is full and the overflow policy is {@link OverflowPolicy#REJECT},
+     *         or the compiler has been shut down.
+     */
+    public Future<String> compileAsync(final String input, final String name, Callback callback) {
+        return submit(name != null ? name : "input", new Compile() {
+            public String compile(LessCompilerPool pool) throws Exception {
+                return name != null ? pool.compile(input, name) : pool.compile(input);
+            }
+        }, callback);
+    }
+
+    /**
+     * Compiles the LESS input <code>File</code> to CSS in the background.
+     *
+     * @param input The LESS input <code>File</code> to compile.
+     * @return The <code>Future</code> of the CSS.
+     * @throws RejectedExecutionException If the queue is full and the overflow policy is {@link OverflowPolicy#REJECT},
+     *         or the compiler has been shut down.
+     */
+    public Future<String> compileAsync(File input) {
+        return compileAsync(input, null);
+    }
+
+    /**
+     * Compiles the LESS input <code>File</code> to CSS in the background.
+     *
+     * @param input The LESS input <code>File</code> to compile.
+     * @param callback The <code>Callback</code> to notify when the compilation completes, or <code>null</code>.
+     * @return The <code>Future</code> of the CSS.
+     * @throws RejectedExecutionException If the queue is full and the overflow policy is {@link OverflowPolicy#REJECT},
+     *         or the compiler has been shut down.
+     */
+    public Future<String> compileAsync(final File input, Callback callback) {
+        return submit(input.getPath(), new Compile() {
+            public String compile(LessCompilerPool pool) throws Exception {
+                return pool.compile(input);
+            }
+        }, callback);
+    }
+
+    /**
+     * Compiles the input <code>LessSource</code> to CSS in the background.
+     *
+     * @param input The input <code>LessSource</code> to compile.
+     * @return The <code>Future</code> of the CSS.
+     * @throws RejectedExecutionException If the queue is full and the overflow policy is {@link OverflowPolicy#REJECT},
+     *         or the compiler has been shut down.
+     */
+    public Future<String> compileAsync(LessSource input) {
+        return compileAsync(input, null);
+    }
+
+    /**
+     * Compiles the input <code>LessSource</code> to CSS in the background.
+     *
+     * @param input The input <code>LessSource</code> to compile.
+     * @param callback The <code>Callback</code> to notify when the compilation completes, or <code>null</code>.
+     * @return The <code>Future</code> of the CSS.
+     * @throws RejectedExecutionException If the queue is full and the overflow policy is {@link OverflowPolicy#REJECT},
+     *         or the compiler has been shut down.
+     */
+    public Future<String> compileAsync(final LessSource input, Callback callback) {
+        return submit(input.getName(), new Compile() {
+            public String compile(LessCompilerPool pool) throws Exception {
+                return pool.compile(input);
+            }
+        }, callback);
+    }
+
+    /**
+     * Returns the number of compilations waiting for a thread.
+     *
+     * @return The number of compilations waiting for a thread.
+     */
+    public synchronized int getQueueDepth() {
+        return executor != null ? executor.getQueue().size() : 0;
+    }
+
+    /**
+     * Returns the number of compilations currently running.
+     *
+     * @return The number of compilations currently running.
+     */
+    public synchronized int getActiveCount() {
+        return executor != null ? executor.getActiveCount() : 0;
+    }
+
+    /**
+     * Returns the number of compilations that have started running.
+     *
+     * @return The number of compilations that have started running.
+     */
+    public long getStartedCount() {
+        return started.get();
+    }
+
+    /**
+     * Returns the number of compilations rejected because the queue was full.
+     *
+     * @return The number of compilations rejected because the queue was full.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Returns the number of waiting compilations shed to make room for newer ones.
+     *
+     * @return The number of waiting compilations shed to make room for newer ones.
+     */
+    public long getShedCount() {
+        return shedCount.get();
+    }
+
+    /**
+     * Returns the average time in milliseconds compilations waited for a thread before they started.
+     *
+     * @return The average time in milliseconds compilations waited for a thread.
+     */
+    public double getAverageWaitTime() {
+        long count = started.get();
+        return count > 0 ? totalWaitTime.get() / (double) count : 0;
+    }
+
+    /**
+     * Returns the longest time in milliseconds a compilation waited for a thread before it started.
+     *
+     * @return The longest time in milliseconds a compilation waited for a thread.
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime.get();
+    }
+
+    /**
+     * Stops accepting compilations. Compilations that are running or waiting are completed, then the threads
+     * and compilers are released.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        shutdown = true;
+    }
+
+    /**
+     * Waits until all compilations have completed after {@link #shutdown()}.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit The unit of the timeout.
+     * @return Whether all compilations completed before the timeout.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        ThreadPoolExecutor executor;
+        synchronized (this) {
+            executor = this.executor;
+        }
+        return executor == null || executor.awaitTermination(timeout, unit);
+    }
+
+    private Future<String> submit(String name, Compile compile, Callback callback) {
+        Task task = new Task(name, compile, callback);
+        getExecutor().execute(task);
+        return task;
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            if (shutdown) {
+                throw new RejectedExecutionException("The compiler has been shut down.");
+            }
+            pool.setMaxSize(threads);
+            pool.setMinSize(threads);
+            BlockingQueue<Runnable> queue = queueCapacity > 0 ? new ArrayBlockingQueue<Runnable>(queueCapacity) : new SynchronousQueue<Runnable>();
+            executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, queue, new ThreadFactory() {
+                private int count = 0;
+
+                public synchronized Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "AsyncLessCompiler-" + (++count));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, new Overflow()) {
+                @Override
+                protected void terminated() {
+                    pool.close();
+                }
+            };
+        }
+        return executor;
+    }
+
+    private void checkNotStarted() {
+        if (executor != null) {
+            throw new IllegalStateException("This method can only be called before the first compilation.");
+        }
+    }
+
+    /**
+     * Applies the overflow policy to a compilation that does not fit in the queue.
+     */
+    private class Overflow implements RejectedExecutionHandler {
+
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (!executor.isShutdown() && overflowPolicy == OverflowPolicy.SHED_OLDEST) {
+                Runnable oldest = executor.getQueue().poll();
+                if (oldest != null) {
+                    ((Task) oldest).shed();
+                    if (executor.getQueue().offer(r)) {
+                        return;
+                    }
+                }
+            }
+            rejectedCount.incrementAndGet();
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("The compiler has been shut down.");
+            }
+            throw new RejectedExecutionException("Too many LESS compilations are waiting, rejected " + ((Task) r).name + ".");
+        }
+    }
+
+    private interface Compile {
+        String compile(LessCompilerPool pool) throws Exception;
+    }
+
+    private class Task extends FutureTask<String> {
+        private final String name;
+        private final Callback callback;
+        private final long queued = System.currentTimeMillis();
+
+        private Task(String name, final Compile compile, Callback callback) {
+            super(new Callable<String>() {
+                public String call() throws Exception {
+                    return compile.compile(pool);
+                }
+            });
+            this.name = name;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            long wait = System.currentTimeMillis() - queued;
+            started.incrementAndGet();
+            totalWaitTime.addAndGet(wait);
+            long max;
+            while (wait > (max = maxWaitTime.get()) && !maxWaitTime.compareAndSet(max, wait)) {
+                // retry until the maximum is updated or a longer wait has been recorded
+            }
+            super.run();
+        }
+
+        private void shed() {
+            shedCount.incrementAndGet();
+            setException(new LessException("Compilation of " + name + " was shed because too many LESS compilations are waiting.", null));
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null) {
+                return;
+            }
+            try {
+                try {
+                    callback.completed(get());
+                } catch (ExecutionException e) {
+                    callback.failed(e.getCause());
+                } catch (CancellationException e) {
+                    callback.failed(e);
+                }
+            } catch (InterruptedException e) {
+                // cannot happen, the task is done
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                logger.error("Callback for " + name + " failed.", e);
+            }
+        }
+    }
+}
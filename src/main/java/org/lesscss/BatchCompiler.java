@@ -0,0 +1,311 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.lesscss.logging.LessLogger;
+import org.lesscss.logging.LessLoggerFactory;
+
+/**
+ * Compiles many LESS sources in parallel.
+ * <p>
+ * The sources are spread over a number of threads, each compiling with its own compiler from a
+ * {@link LessCompilerPool} configured like the template. A source that fails to compile does not stop the batch,
+ * the outcome of every source is reported as a {@link Result}.
+ * </p>
+ * <h4>Basic code example:</h4>
+ * <pre>
+ * BatchCompiler batchCompiler = new BatchCompiler(new LessCompiler());
+ * for (BatchCompiler.Result result : batchCompiler.compileAll(sources, new File("target/css"))) {
+ *     ...
+ * }
+ * </pre>
+ */
+public class BatchCompiler {
+
+    private static final LessLogger logger = LessLoggerFactory.getLogger(BatchCompiler.class);
+
+    private final LessCompiler template;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Constructs a new <code>BatchCompiler</code> using default configured compilers.
+     */
+    public BatchCompiler() {
+        this(new LessCompiler());
+    }
+
+    /**
+     * Constructs a new <code>BatchCompiler</code> using compilers configured like the template.
+     *
+     * @param template The <code>LessCompiler</code> whose configuration is used for the compilers.
+     */
+    public BatchCompiler(LessCompiler template) {
+        if (template == null) {
+            throw new IllegalArgumentException("Template must not be null!");
+        }
+        this.template = template;
+    }
+
+    /**
+     * Returns the number of threads used to compile. 
+     *
+     * @return The number of threads used to compile.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of threads used to compile. Defaults to the number of available processors.
+     *
+     * @param threads The number of threads used to compile.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1.");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Compiles the LESS sources to CSS files in the output directory, named after the sources.
+     *
+     * @param sources The LESS sources to compile.
+     * @param outputDirectory The directory to write the CSS files to.
+     * @return The outcome of every source, in the order of the sources.
+     * @throws InterruptedException If the thread is interrupted while waiting for the compilations.
+     */
+    public List<Result> compileAll(Collection<LessSource> sources, File outputDirectory) throws InterruptedException {
+        List<Job> jobs = new ArrayList<Job>(sources.size());
+        for (final LessSource source : sources) {
+            String name = new File(source.getName()).getName();
+            final File output = new File(outputDirectory, cssFileName(name));
+            jobs.add(new Job(source.getName(), output) {
+                void compile(LessCompilerPool pool) throws IOException, LessException {
+                    pool.compile(source, output);
+                }
+            });
+        }
+        return run(jobs);
+    }
+
+    /**
+     * Compiles LESS files to CSS files.
+     *
+     * @param files The CSS file to write for each LESS file to compile.
+     * @return The outcome of every file, in the iteration order of the map.
+     * @throws InterruptedException If the thread is interrupted while waiting for the compilations.
+     */
+    public List<Result> compileFiles(Map<File, File> files) throws InterruptedException {
+        List<Job> jobs = new ArrayList<Job>(files.size());
+        for (final Map.Entry<File, File> entry : files.entrySet()) {
+            jobs.add(new Job(entry.getKey().getPath(), entry.getValue()) {
+                void compile(LessCompilerPool pool) throws IOException, LessException {
+                    pool.compile(entry.getKey(), entry.getValue());
+                }
+            });
+        }
+        return run(jobs);
+    }
+
+    private List<Result> run(List<Job> jobs) throws InterruptedException {
+        List<Result> results = new ArrayList<Result>(jobs.size());
+        if (jobs.isEmpty()) {
+            return results;
+        }
+        long start = System.currentTimeMillis();
+        int size = Math.min(threads, jobs.size());
+
+        final LessCompilerPool pool = new LessCompilerPool(template);
+        pool.setMaxSize(size);
+        pool.setMinSize(size);
+        ExecutorService executor = Executors.newFixedThreadPool(size, new ThreadFactory() {
+            private int count = 0;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "BatchCompiler-" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Callable<Result>> tasks = new ArrayList<Callable<Result>>(jobs.size());
+            for (final Job job : jobs) {
+                tasks.add(new Callable<Result>() {
+                    public Result call() {
+                        return job.run(pool);
+                    }
+                });
+            }
+            for (Future<Result> future : executor.invokeAll(tasks)) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    // Job.run catches all exceptions, so this can only be an Error
+                    throw (Error) e.getCause();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            pool.close();
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Finished batch of %d LESS sources on %d threads in %,d ms.", jobs.size(), size, System.currentTimeMillis() - start);
+        }
+        return results;
+    }
+
+    /**
+     * Returns the CSS file name for a LESS file name.
+     */
+    static String cssFileName(String name) {
+        return name.replaceFirst("\\.less$", "") + ".css";
+    }
+
+    /**
+     * Returns the CSS file for a LESS file in the source directory. The CSS file is written to the same relative
+     * path in the output directory, or next to the LESS file if there is no output directory. A LESS file outside
+     * the source directory is written to the output directory itself.
+     */
+    static File cssFile(File input, File sourceDirectory, File outputDirectory) {
+        String name = cssFileName(input.getName());
+        if (outputDirectory == null) {
+            return new File(input.getParentFile(), name);
+        }
+        // both sides are canonical, so symbolic links and "." or ".." segments don't prevent a match
+        File canonicalSourceDirectory = canonicalFile(sourceDirectory);
+        List<String> path = new LinkedList<String>();
+        File parent = canonicalFile(input.getAbsoluteFile().getParentFile());
+        for (; parent != null && !parent.equals(canonicalSourceDirectory); parent = parent.getParentFile()) {
+            path.add(0, parent.getName());
+        }
+        if (parent == null) {
+            path.clear();
+        }
+        File directory = outputDirectory;
+        for (String segment : path) {
+            directory = new File(directory, segment);
+        }
+        return new File(directory, name);
+    }
+
+    private static File canonicalFile(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            return file.getAbsoluteFile();
+        }
+    }
+
+    private abstract static class Job {
+        private final String name;
+        private final File output;
+
+        private Job(String name, File output) {
+            this.name = name;
+            this.output = output;
+        }
+
+        abstract void compile(LessCompilerPool pool) throws IOException, LessException;
+
+        Result run(LessCompilerPool pool) {
+            long start = System.currentTimeMillis();
+            Exception exception = null;
+            try {
+                compile(pool);
+            } catch (Exception e) {
+                exception = e;
+            }
+            return new Result(name, output, System.currentTimeMillis() - start, exception);
+        }
+    }
+
+    /**
+     * The outcome of compiling a single source of a batch.
+     */
+    public static class Result {
+        private final String name;
+        private final File output;
+        private final long duration;
+        private final Exception exception;
+
+        Result(String name, File output, long duration, Exception exception) {
+            this.name = name;
+            this.output = output;
+            this.duration = duration;
+            this.exception = exception;
+        }
+
+        /**
+         * Returns the name of the LESS source.
+         *
+         * @return The name of the LESS source.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the CSS file.
+         *
+         * @return The CSS file.
+         */
+        public File getOutput() {
+            return output;
+        }
+
+        /**
+         * Returns the time in milliseconds the compilation took, including waiting for a compiler.
+         *
+         * @return The time in milliseconds the compilation took.
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * Returns the exception if the compilation failed, otherwise <code>null</code>.
+         *
+         * @return The exception if the compilation failed.
+         */
+        public Exception getException() {
+            return exception;
+        }
+
+        /**
+         * Returns whether the CSS file was written.
+         *
+         * @return Whether the CSS file was written.
+         */
+        public boolean isSuccessful() {
+            return exception == null;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Classpath based implementation of {@link Resource}.
+ * <p>
+ * Resources in jars are read straight from the jar, nothing is extracted. Their last modified time is the time of
+ * the jar entry.
+ * </p>
+ * <h4>Basic code example:</h4>
+ * <pre>
+ * String css = lessCompiler.compile(new LessSource(new ClasspathResource("META-INF/less/theme.less")));
+ * </pre>
+ */
+public class ClasspathResource implements Resource {
+
+    private final String path;
+    private final ClassLoader classLoader;
+
+    /**
+     * Constructs a new <code>ClasspathResource</code> loaded by the context class loader of the current thread, or
+     * the class loader of this library if there is none.
+     *
+     * @param path The path of the resource, relative to the root of the classpath.
+     */
+    public ClasspathResource(String path) {
+        this(path, null);
+    }
+
+    /**
+     * Constructs a new <code>ClasspathResource</code>.
+     *
+     * @param path The path of the resource, relative to the root of the classpath.
+     * @param classLoader The class loader to load the resource with, or <code>null</code> for the context class loader.
+     */
+    public ClasspathResource(String path, ClassLoader classLoader) {
+        if (path == null) {
+            throw new IllegalArgumentException("Path must not be null!");
+        }
+        if (classLoader == null) {
+            classLoader = Thread.currentThread().getContextClassLoader();
+            if (classLoader == null) {
+                classLoader = ClasspathResource.class.getClassLoader();
+            }
+        }
+        this.path = path.startsWith("/") ? path.substring(1) : path;
+        this.classLoader = classLoader;
+    }
+
+    public boolean exists() {
+        return getURL() != null;
+    }
+
+    public long lastModified() {
+        URL url = getURL();
+        if (url == null) {
+            return 0;
+        }
+        // opening a connection to a file opens the file, which would be left open
+        File file = FileUtils.toFile(url);
+        if (file != null) {
+            return file.lastModified();
+        }
+        try {
+            URLConnection connection = url.openConnection();
+            if (connection instanceof JarURLConnection) {
+                long time = ((JarURLConnection) connection).getJarEntry().getTime();
+                return time > 0 ? time : 0;
+            }
+            long lastModified = connection.getLastModified();
+            try {
+                connection.getInputStream().close();
+            } catch (IOException e) {
+                // nothing was left open
+            }
+            return lastModified;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    public InputStream getInputStream() throws IOException {
+        URL url = getURL();
+        if (url == null) {
+            throw new FileNotFoundException("Classpath resource " + path + " not found.");
+        }
+        return url.openStream();
+    }
+
+    public Resource createRelative(String relativeResourcePath) throws IOException {
+        String relativePath = FilenameUtils.normalize(FilenameUtils.getPath(path) + relativeResourcePath, true);
+        if (relativePath == null) {
+            throw new IOException("Could not resolve " + relativeResourcePath + " against classpath resource " + path);
+        }
+        return new ClasspathResource(relativePath, classLoader);
+    }
+
+    public String getName() {
+        return "classpath:" + path;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    private URL getURL() {
+        return classLoader.getResource(path);
+    }
+}
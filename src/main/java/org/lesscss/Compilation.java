@@ -0,0 +1,368 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * The state of a single compilation that the LESSC script reaches through the functions defined by
+ * {@link #defineFunctions(Scriptable)}.
+ * <p>
+ * Imports are resolved against the <code>Resource</code> of the importing file and read through the
+ * {@link ContentCache} of the compiler, unless they are part of the {@link LessSource} being compiled, whose content is
+ * already loaded. The functions find the compilation of the calling thread, because in a
+ * shared scope the LESS file loader is installed once and then used by all compilations.
+ * </p>
+ */
+final class Compilation {
+
+    private static final ThreadLocal<Compilation> current = new ThreadLocal<Compilation>();
+
+    private final Charset charset;
+    private final ContentCache contentCache;
+    private final Map<String, Resource> resources = new HashMap<String, Resource>();
+    private final Map<String, LessSource> sources = new HashMap<String, LessSource>();
+    private final Map<String, Long> lastModified = new HashMap<String, Long>();
+    private final List<String> warnings = new ArrayList<String>();
+    private String result;
+    private int importCount;
+    private long importLength;
+    private final Map<String, Long> phases = new HashMap<String, Long>();
+    private long timeout;
+    private long deadline;
+    private long instructionLimit;
+    private long instructions;
+
+    /**
+     * Creates a compilation of <code>root</code>, which may be <code>null</code> if the source is not backed by a resource.
+     * Imports are read through <code>contentCache</code>, or read every time if it is <code>null</code>.
+     */
+    Compilation(Resource root, Charset charset, ContentCache contentCache) {
+        this.charset = charset;
+        this.contentCache = contentCache;
+        if (root != null) {
+            resources.put(root.getName(), root);
+        }
+    }
+
+    /**
+     * Adds a <code>LessSource</code> and its imports, so reading an import returns the content the source already
+     * loaded instead of reading the resource again.
+     */
+    void addSources(LessSource source) {
+        if (sources.put(source.getIdentity(), source) == null) {
+            resources.put(source.getIdentity(), source.getResource());
+            for (LessSource imported : source.getImports().values()) {
+                addSources(imported);
+            }
+        }
+    }
+
+    /**
+     * Limits the compilation to take at most <code>timeout</code> milliseconds from now and to run at most
+     * <code>instructionLimit</code> instructions. Zero means no limit.
+     */
+    void setBudget(long timeout, long instructionLimit) {
+        this.timeout = timeout;
+        this.deadline = timeout > 0 ? System.nanoTime() + timeout * 1000000 : 0;
+        this.instructionLimit = instructionLimit;
+    }
+
+    /**
+     * Counts the instructions run by the JavaScript of the compilation and stops it by throwing {@link Aborted} if
+     * it is out of budget or its thread was interrupted. An <code>Error</code> is thrown, because the JavaScript
+     * can't catch it.
+     */
+    void observeInstructions(int count) {
+        instructions += count;
+        if (Thread.currentThread().isInterrupted()) {
+            throw new Aborted(CompilationAbortedException.Reason.CANCELLED, "was cancelled");
+        }
+        if (instructionLimit > 0 && instructions > instructionLimit) {
+            throw new Aborted(CompilationAbortedException.Reason.INSTRUCTION_LIMIT, "ran more than " + instructionLimit + " instructions");
+        }
+        if (deadline != 0 && System.nanoTime() - deadline > 0) {
+            throw new Aborted(CompilationAbortedException.Reason.TIMEOUT, "took longer than " + timeout + " ms");
+        }
+    }
+
+    /**
+     * Makes this the compilation of the calling thread until {@link #end()} is called.
+     */
+    void begin() {
+        current.set(this);
+    }
+
+    void end() {
+        current.remove();
+    }
+
+    /**
+     * Returns the name of the resource that <code>file</code> refers to when imported from <code>currentFilename</code>.
+     * The name is the identity of the resource, such as the canonical path of a file, so the LESS JavaScript imports
+     * a file only once however the path to it is written.
+     */
+    String resolve(String file, String currentFilename) throws IOException {
+        Resource resource;
+        if (file.startsWith("http://") || file.startsWith("https://")) {
+            resource = newHttpResource(file);
+        } else {
+            Resource importer = currentFilename != null ? resources.get(currentFilename) : null;
+            if (importer == null || (importer instanceof FileResource && new File(file).isAbsolute())) {
+                File parent = currentFilename != null ? new File(currentFilename).getParentFile() : null;
+                resource = new FileResource(new File(file).isAbsolute() ? new File(file) : new File(parent, file));
+            } else {
+                resource = importer.createRelative(file);
+            }
+        }
+        String name = LessSource.identity(resource);
+        resources.put(name, resource);
+        return name;
+    }
+
+    /**
+     * Returns the content of the resource with the given name.
+     */
+    String read(String name) throws IOException {
+        String content;
+        LessSource source = sources.get(name);
+        if (source != null) {
+            lastModified.put(name, source.getContentLastModified());
+            content = source.getContent();
+        } else {
+            Resource resource = resources.get(name);
+            if (resource == null) {
+                resource = new FileResource(new File(name));
+                resources.put(name, resource);
+            }
+            // the content is at least as recent as this, so it is safe to cache what is derived from it under this time
+            lastModified.put(name, resource.lastModified());
+            content = contentCache != null ? contentCache.getContent(resource, charset) : ContentCache.read(resource, charset);
+        }
+        importCount++;
+        importLength += content.length();
+        return content;
+    }
+
+    /**
+     * Returns the last modified time of the resource with the given name as it was when this compilation read it,
+     * or 0 if it is unknown.
+     */
+    long getLastModified(String name) {
+        Long time = lastModified.get(name);
+        return time != null ? time.longValue() : 0;
+    }
+
+    /**
+     * Returns the resources this compilation read that were not given to it as a <code>LessSource</code>, with their
+     * last modified times as they were when they were read.
+     */
+    Map<Resource, Long> getReadResources() {
+        Map<Resource, Long> read = new HashMap<Resource, Long>();
+        for (Map.Entry<String, Long> entry : lastModified.entrySet()) {
+            if (!sources.containsKey(entry.getKey())) {
+                read.put(resources.get(entry.getKey()), entry.getValue());
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Returns the CSS passed to <code>lessResult(css)</code>, or <code>null</code> if the script did not call it.
+     */
+    String getResult() {
+        return result;
+    }
+
+    /**
+     * Returns the warnings passed to <code>lessWarn(message)</code>.
+     */
+    List<String> getWarnings() {
+        return warnings;
+    }
+
+    int getImportCount() {
+        return importCount;
+    }
+
+    long getImportLength() {
+        return importLength;
+    }
+
+    /**
+     * Returns the time in nanoseconds from the start of phase <code>from</code> to the start of phase
+     * <code>to</code>, as reported by <code>lessPhase(name)</code>, or 0 if either was not reported.
+     */
+    long getPhaseTime(String from, String to) {
+        Long start = phases.get(from);
+        Long end = phases.get(to);
+        return start != null && end != null ? end.longValue() - start.longValue() : 0;
+    }
+
+    private static Resource newHttpResource(String url) throws IOException {
+        try {
+            return new HttpResource(url);
+        } catch (URISyntaxException e) {
+            throw (IOException) new IOException("Invalid import URL " + url).initCause(e);
+        }
+    }
+
+    /**
+     * Defines the <code>lessResolveImport(file, currentFilename)</code> and <code>lessReadImport(href)</code>
+     * functions used by the LESSC script to load imports, <code>lessResult(css)</code> that it passes the CSS to,
+     * <code>lessWarn(message)</code> that LESS passes its warnings to, and <code>lessPhase(name)</code> that marks
+     * the start of the parse, eval and toCSS phases and their end, done.
+     */
+    static void defineFunctions(Scriptable scope) {
+        define(scope, new ResolveImport());
+        define(scope, new ReadImport());
+        define(scope, new Result());
+        define(scope, new Warn());
+        define(scope, new Phase());
+    }
+
+    private static void define(Scriptable scope, BaseFunction function) {
+        ScriptRuntime.setFunctionProtoAndParent(function, scope);
+        scope.put(function.getFunctionName(), scope, function);
+    }
+
+    /**
+     * Returns the compilation of the calling thread, or <code>null</code> if none is running.
+     */
+    static Compilation running() {
+        return current.get();
+    }
+
+    static Compilation current() {
+        Compilation compilation = current.get();
+        if (compilation == null) {
+            throw new IllegalStateException("No LESS compilation is running on this thread.");
+        }
+        return compilation;
+    }
+
+    /**
+     * Stops a compilation, see {@link #observeInstructions(int)}.
+     */
+    @SuppressWarnings("serial")
+    static class Aborted extends Error {
+
+        private final CompilationAbortedException.Reason reason;
+
+        Aborted(CompilationAbortedException.Reason reason, String message) {
+            super(message);
+            this.reason = reason;
+        }
+
+        CompilationAbortedException toException(String path) {
+            return new CompilationAbortedException(reason, "Compilation of " + path + " " + getMessage() + ".");
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class ResolveImport extends BaseFunction {
+
+        @Override
+        public String getFunctionName() {
+            return "lessResolveImport";
+        }
+
+        @Override
+        public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+            String file = Context.toString(args[0]);
+            String currentFilename = args.length > 1 && args[1] instanceof CharSequence ? args[1].toString() : null;
+            try {
+                return current().resolve(file, currentFilename);
+            } catch (IOException e) {
+                throw Context.throwAsScriptRuntimeEx(e);
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class ReadImport extends BaseFunction {
+
+        @Override
+        public String getFunctionName() {
+            return "lessReadImport";
+        }
+
+        @Override
+        public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+            try {
+                return current().read(Context.toString(args[0]));
+            } catch (IOException e) {
+                throw Context.throwAsScriptRuntimeEx(e);
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class Result extends BaseFunction {
+
+        @Override
+        public String getFunctionName() {
+            return "lessResult";
+        }
+
+        @Override
+        public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+            current().result = Context.toString(args[0]);
+            return Context.getUndefinedValue();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class Warn extends BaseFunction {
+
+        @Override
+        public String getFunctionName() {
+            return "lessWarn";
+        }
+
+        @Override
+        public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+            current().warnings.add(Context.toString(args[0]));
+            return Context.getUndefinedValue();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class Phase extends BaseFunction {
+
+        @Override
+        public String getFunctionName() {
+            return "lessPhase";
+        }
+
+        @Override
+        public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+            current().phases.put(Context.toString(args[0]), Long.valueOf(System.nanoTime()));
+            return Context.getUndefinedValue();
+        }
+    }
+}
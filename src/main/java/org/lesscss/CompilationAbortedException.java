@@ -0,0 +1,60 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+/**
+ * An exception thrown when a compilation is stopped before it finished, because it ran out of time or
+ * instructions or because it was cancelled.
+ *
+ * @see LessCompiler#setTimeout(long)
+ * @see LessCompiler#setInstructionLimit(long)
+ */
+@SuppressWarnings("serial")
+public class CompilationAbortedException extends LessException {
+
+    /**
+     * Why a compilation was stopped.
+     */
+    public enum Reason {
+        /** The compilation took longer than the timeout of the compiler. */
+        TIMEOUT,
+        /** The compilation ran more JavaScript instructions than the instruction limit of the compiler. */
+        INSTRUCTION_LIMIT,
+        /** The thread running the compilation was interrupted, e.g. by cancelling its <code>Future</code>. */
+        CANCELLED
+    }
+
+    private final Reason reason;
+
+    /**
+     * Constructs a new <code>CompilationAbortedException</code>.
+     *
+     * @param reason Why the compilation was stopped.
+     * @param message The message.
+     */
+    public CompilationAbortedException(Reason reason, String message) {
+        super(message, null);
+        this.reason = reason;
+    }
+
+    /**
+     * Returns why the compilation was stopped.
+     *
+     * @return Why the compilation was stopped.
+     */
+    public Reason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,174 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+/**
+ * The details of a single compilation, passed to a {@link CompilationListener}.
+ * <p>
+ * All times are in nanoseconds. The parse, evaluation and CSS generation times are measured by the LESSC script,
+ * they are <code>0</code> if the script does not report them or if the compilation failed before reaching them.
+ * </p>
+ */
+public class CompilationEvent {
+
+    private final String name;
+    private final long totalTime;
+    private final long initTime;
+    private final long waitTime;
+    private final long parseTime;
+    private final long evalTime;
+    private final long toCssTime;
+    private final long inputLength;
+    private final int importCount;
+    private final long importLength;
+    private final long outputLength;
+    private final LessException exception;
+
+    CompilationEvent(String name, long totalTime, long initTime, long waitTime, long parseTime, long evalTime, long toCssTime,
+            long inputLength, int importCount, long importLength, long outputLength, LessException exception) {
+        this.name = name;
+        this.totalTime = totalTime;
+        this.initTime = initTime;
+        this.waitTime = waitTime;
+        this.parseTime = parseTime;
+        this.evalTime = evalTime;
+        this.toCssTime = toCssTime;
+        this.inputLength = inputLength;
+        this.importCount = importCount;
+        this.importLength = importLength;
+        this.outputLength = outputLength;
+        this.exception = exception;
+    }
+
+    /**
+     * Returns the name of the compiled source.
+     *
+     * @return The name of the compiled source.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the time the compile method took, including initialization and waiting for the compiler.
+     *
+     * @return The total time in nanoseconds.
+     */
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    /**
+     * Returns the time spent initializing the compiler, which is only done by its first compilation.
+     *
+     * @return The initialization time in nanoseconds.
+     */
+    public long getInitTime() {
+        return initTime;
+    }
+
+    /**
+     * Returns the time spent waiting for other compilations of the same compiler to finish. Compilers with a shared
+     * scope never wait.
+     *
+     * @return The wait time in nanoseconds.
+     */
+    public long getWaitTime() {
+        return waitTime;
+    }
+
+    /**
+     * Returns the time spent parsing the source and its imports, including reading the imports.
+     *
+     * @return The parse time in nanoseconds.
+     */
+    public long getParseTime() {
+        return parseTime;
+    }
+
+    /**
+     * Returns the time spent evaluating the parsed source: variables, mixins, operations and extends.
+     *
+     * @return The evaluation time in nanoseconds.
+     */
+    public long getEvalTime() {
+        return evalTime;
+    }
+
+    /**
+     * Returns the time spent generating the CSS from the evaluated source, including writing it for a compilation to
+     * a stream.
+     *
+     * @return The CSS generation time in nanoseconds.
+     */
+    public long getToCssTime() {
+        return toCssTime;
+    }
+
+    /**
+     * Returns the size of the input: the number of characters of a <code>String</code> or <code>LessSource</code>,
+     * or the number of bytes of a <code>File</code>. Imports are not included.
+     *
+     * @return The size of the input.
+     */
+    public long getInputLength() {
+        return inputLength;
+    }
+
+    /**
+     * Returns the number of imports the compilation read.
+     *
+     * @return The number of imports the compilation read.
+     */
+    public int getImportCount() {
+        return importCount;
+    }
+
+    /**
+     * Returns the number of characters of the imports the compilation read.
+     *
+     * @return The number of characters of the imports.
+     */
+    public long getImportLength() {
+        return importLength;
+    }
+
+    /**
+     * Returns the number of characters of the CSS, or <code>0</code> if the compilation failed.
+     *
+     * @return The number of characters of the CSS.
+     */
+    public long getOutputLength() {
+        return outputLength;
+    }
+
+    /**
+     * Returns the exception if the compilation failed, otherwise <code>null</code>.
+     *
+     * @return The exception if the compilation failed.
+     */
+    public LessException getException() {
+        return exception;
+    }
+
+    /**
+     * Returns whether the compilation succeeded.
+     *
+     * @return Whether the compilation succeeded.
+     */
+    public boolean isSuccessful() {
+        return exception == null;
+    }
+}
@@ -0,0 +1,37 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+/**
+ * Receives an event for every compilation of a <code>LessCompiler</code> it is added to, for example to collect
+ * metrics about the compilations.
+ * <p>
+ * Listeners are called on the thread that compiled, after the compilation has finished and before the compile
+ * method returns, so they should be fast and must be thread safe. Exceptions thrown by a listener are logged and
+ * otherwise ignored.
+ * </p>
+ *
+ * @see LessCompiler#addCompilationListener(CompilationListener)
+ * @see CompilationMetrics
+ */
+public interface CompilationListener {
+
+    /**
+     * Called when a compilation has finished, whether it succeeded or failed.
+     *
+     * @param event The details of the compilation.
+     */
+    void compilationFinished(CompilationEvent event);
+}
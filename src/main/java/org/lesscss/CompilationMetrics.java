@@ -0,0 +1,132 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+/**
+ * A {@link CompilationListener} that keeps counters, average times and a latency histogram of the compilations of
+ * the compilers it is added to. It can be registered as a JMX MBean to expose them.
+ * <h4>Basic code example:</h4>
+ * <pre>
+ * CompilationMetrics metrics = new CompilationMetrics();
+ * lessCompiler.addCompilationListener(metrics);
+ * ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName("org.lesscss:type=LessCompiler,name=main"));
+ * </pre>
+ */
+public class CompilationMetrics implements CompilationListener, CompilationMetricsMBean {
+
+    private static final long[] BUCKET_BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000 };
+
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private long compilationCount;
+    private long failureCount;
+    private long importCount;
+    private long outputLength;
+    private long totalTime;
+    private long maxTime;
+    private long waitTime;
+    private long parseTime;
+    private long evalTime;
+    private long toCssTime;
+    private long[] histogram = new long[BUCKET_BOUNDS.length + 1];
+
+    public synchronized void compilationFinished(CompilationEvent event) {
+        compilationCount++;
+        if (!event.isSuccessful()) {
+            failureCount++;
+        }
+        importCount += event.getImportCount();
+        outputLength += event.getOutputLength();
+        totalTime += event.getTotalTime();
+        maxTime = Math.max(maxTime, event.getTotalTime());
+        waitTime += event.getWaitTime();
+        parseTime += event.getParseTime();
+        evalTime += event.getEvalTime();
+        toCssTime += event.getToCssTime();
+
+        long millis = event.getTotalTime() / 1000000;
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS.length && millis >= BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        histogram[bucket]++;
+    }
+
+    public synchronized long getCompilationCount() {
+        return compilationCount;
+    }
+
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    public synchronized long getImportCount() {
+        return importCount;
+    }
+
+    public synchronized long getOutputLength() {
+        return outputLength;
+    }
+
+    public synchronized double getAverageTime() {
+        return average(totalTime);
+    }
+
+    public synchronized double getMaxTime() {
+        return maxTime / NANOS_PER_MILLI;
+    }
+
+    public synchronized double getAverageWaitTime() {
+        return average(waitTime);
+    }
+
+    public synchronized double getAverageParseTime() {
+        return average(parseTime);
+    }
+
+    public synchronized double getAverageEvalTime() {
+        return average(evalTime);
+    }
+
+    public synchronized double getAverageToCssTime() {
+        return average(toCssTime);
+    }
+
+    public long[] getLatencyBucketBounds() {
+        return BUCKET_BOUNDS.clone();
+    }
+
+    public synchronized long[] getLatencyHistogram() {
+        return histogram.clone();
+    }
+
+    public synchronized void reset() {
+        compilationCount = 0;
+        failureCount = 0;
+        importCount = 0;
+        outputLength = 0;
+        totalTime = 0;
+        maxTime = 0;
+        waitTime = 0;
+        parseTime = 0;
+        evalTime = 0;
+        toCssTime = 0;
+        histogram = new long[BUCKET_BOUNDS.length + 1];
+    }
+
+    private double average(long nanos) {
+        return compilationCount > 0 ? nanos / NANOS_PER_MILLI / compilationCount : 0;
+    }
+}
@@ -0,0 +1,87 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+/**
+ * The JMX management interface of {@link CompilationMetrics}. Times are in milliseconds.
+ */
+public interface CompilationMetricsMBean {
+
+    /**
+     * @return The number of compilations.
+     */
+    long getCompilationCount();
+
+    /**
+     * @return The number of compilations that failed.
+     */
+    long getFailureCount();
+
+    /**
+     * @return The number of imports read by all compilations.
+     */
+    long getImportCount();
+
+    /**
+     * @return The number of characters of CSS produced by all compilations.
+     */
+    long getOutputLength();
+
+    /**
+     * @return The average total time of a compilation.
+     */
+    double getAverageTime();
+
+    /**
+     * @return The longest total time of a compilation.
+     */
+    double getMaxTime();
+
+    /**
+     * @return The average time a compilation waited for other compilations.
+     */
+    double getAverageWaitTime();
+
+    /**
+     * @return The average time a compilation spent parsing.
+     */
+    double getAverageParseTime();
+
+    /**
+     * @return The average time a compilation spent evaluating.
+     */
+    double getAverageEvalTime();
+
+    /**
+     * @return The average time a compilation spent generating CSS.
+     */
+    double getAverageToCssTime();
+
+    /**
+     * @return The upper bounds of the buckets of the latency histogram.
+     */
+    long[] getLatencyBucketBounds();
+
+    /**
+     * @return The number of compilations per bucket of total time. The last bucket counts the compilations that took
+     *         longer than the last bound.
+     */
+    long[] getLatencyHistogram();
+
+    /**
+     * Resets all counters.
+     */
+    void reset();
+}
@@ -4,32 +4,170 @@ import org.lesscss.logging.LessLogger;
 import org.lesscss.logging.LessLoggerFactory;
 
 import java.io.File;
-import java.util.Arrays;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 public class Compile {
 
     private static final LessLogger logger = LessLoggerFactory.getLogger( Compile.class );
 
+    private static final String USAGE = "usage: org.lesscss.Compile [--threads=<n>] [--output-dir=<dir>] <args> <less_filename|directory|glob>...";
+
 	public static void main(String[] args) throws Exception {
 		if( args.length < 1 ) {
-		    logger.info("usage: org.lesscss.Compile <args> <less_filename>");
+		    logger.info(USAGE);
             System.exit(-1);
 		}
 		
-		List<String> argList = Arrays.asList(args);
-		String fileName = argList.get(argList.size() - 1);
-		argList = argList.subList(0, argList.size() - 1);
+		List<String> options = new ArrayList<String>();
+		List<String> inputs = new ArrayList<String>();
+		File outputDirectory = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < args.length; i++) {
+		    String arg = args[i];
+		    if (arg.equals("--threads") || arg.equals("--output-dir")) {
+		        if (i + 1 == args.length) {
+		            logger.info(USAGE);
+		            System.exit(-1);
+		        }
+		        arg = arg + "=" + args[++i];
+		    }
+		    if (arg.startsWith("--threads=")) {
+		        threads = parseThreads(arg.substring("--threads=".length()));
+		        if (threads < 1) {
+		            logger.info(USAGE);
+		            System.exit(-1);
+		        }
+		    } else if (arg.startsWith("--output-dir=")) {
+		        outputDirectory = new File(arg.substring("--output-dir=".length()));
+		    } else if (arg.startsWith("-")) {
+		        options.add(arg);
+		    } else {
+		        inputs.add(arg);
+		    }
+		}
 
-        File output = new File( fileName + ".css" );
-        logger.info("Compiler output = %s", output.getCanonicalPath() );
+		// a single file without an output directory is compiled to <name>.css next to it, as it always was
+		Map<File, File> files = new LinkedHashMap<File, File>();
+		if (inputs.size() == 1 && outputDirectory == null && new File(inputs.get(0)).isFile()) {
+		    files.put(new File(inputs.get(0)), new File(inputs.get(0) + ".css"));
+		} else {
+		    for (String input : inputs) {
+		        addInput(input, outputDirectory, files);
+		    }
+		}
+		if (files.isEmpty()) {
+		    logger.info("No LESS files found.");
+		    System.exit(-1);
+		}
 
         long start = System.currentTimeMillis();
-		LessCompiler lessCompiler = new LessCompiler(argList);
+		BatchCompiler batchCompiler = new BatchCompiler(new LessCompiler(options));
+		batchCompiler.setThreads(threads);
+		List<BatchCompiler.Result> results = batchCompiler.compileFiles(files);
 		
-		lessCompiler.compile( new File( fileName ), output );
+		int failures = 0;
+		for (BatchCompiler.Result result : results) {
+		    if (result.isSuccessful()) {
+		        logger.info("%,6d ms  %s -> %s", result.getDuration(), result.getName(), result.getOutput().getCanonicalPath());
+		    } else {
+		        failures++;
+		        logger.error("%,6d ms  %s FAILED: %s", result.getDuration(), result.getName(), result.getException().getMessage());
+		    }
+		}
 		
         long duration = System.currentTimeMillis() - start;
-        logger.info("Done. %,d ms", duration);
+        logger.info("Done. Compiled %d of %d files on %d threads in %,d ms", results.size() - failures, results.size(), Math.min(threads, results.size()), duration);
+        if (failures > 0) {
+            System.exit(1);
+        }
+	}
+
+	/**
+	 * Adds the LESS files for a command line input: a file, a directory whose root stylesheets are compiled,
+	 * or a glob pattern such as <code>src/&#42;&#42;/&#42;.less</code>.
+	 */
+	private static void addInput(String input, File outputDirectory, Map<File, File> files) throws IOException {
+	    File file = new File(input);
+	    if (file.isFile()) {
+	        files.put(file, BatchCompiler.cssFile(file, file.getAbsoluteFile().getParentFile(), outputDirectory));
+	    } else if (file.isDirectory()) {
+	        // files that are imported by other files in the directory are not compiled on their own
+	        List<File> lessFiles = new ArrayList<File>();
+	        ImportIndex.listLessFiles(file, lessFiles);
+	        ImportIndex index = new ImportIndex();
+	        for (File lessFile : lessFiles) {
+	            index.add(lessFile.getCanonicalFile());
+	        }
+	        for (File root : index.getRoots()) {
+	            files.put(root, BatchCompiler.cssFile(root, file, outputDirectory));
+	        }
+	    } else if (input.indexOf('*') >= 0 || input.indexOf('?') >= 0) {
+	        String path = input.replace(File.separatorChar, '/');
+	        int wildcard = Math.min(path.indexOf('*') >= 0 ? path.indexOf('*') : path.length(), path.indexOf('?') >= 0 ? path.indexOf('?') : path.length());
+	        int slash = path.lastIndexOf('/', wildcard);
+	        File base = new File(slash >= 0 ? path.substring(0, slash + 1) : ".");
+	        Pattern pattern = globToPattern(path.substring(slash + 1));
+	        List<File> lessFiles = new ArrayList<File>();
+	        ImportIndex.listLessFiles(base, lessFiles);
+	        String basePath = base.getCanonicalPath();
+	        if (!basePath.endsWith(File.separator)) {
+	            basePath += File.separator;
+	        }
+	        for (File lessFile : lessFiles) {
+	            String canonicalPath = lessFile.getCanonicalPath();
+	            // a symbolic link may lead out of the base directory, where the pattern can't be matched
+	            if (!canonicalPath.startsWith(basePath)) {
+	                logger.error("%s is not in %s, skipped.", lessFile, base);
+	                continue;
+	            }
+	            String relativePath = canonicalPath.substring(basePath.length()).replace(File.separatorChar, '/');
+	            if (pattern.matcher(relativePath).matches()) {
+	                files.put(lessFile, BatchCompiler.cssFile(lessFile, base, outputDirectory));
+	            }
+	        }
+	    } else {
+	        logger.error("%s does not exist.", input);
+	    }
+	}
+
+	/**
+	 * Returns the number of threads given by <code>--threads</code>, or 0 if it is not a number.
+	 */
+	static int parseThreads(String value) {
+	    try {
+	        return Integer.parseInt(value.trim());
+	    } catch (NumberFormatException e) {
+	        return 0;
+	    }
+	}
+
+	/**
+	 * Converts a glob to a regular expression: <code>&#42;&#42;</code> matches any number of directories,
+	 * <code>&#42;</code> and <code>?</code> match within a single file name.
+	 */
+	static Pattern globToPattern(String glob) {
+	    StringBuilder regex = new StringBuilder();
+	    for (int i = 0; i < glob.length(); i++) {
+	        char c = glob.charAt(i);
+	        if (c == '*' && glob.startsWith("**/", i)) {
+	            regex.append("(?:.*/)?");
+	            i += 2;
+	        } else if (c == '*' && glob.startsWith("**", i)) {
+	            regex.append(".*");
+	            i++;
+	        } else if (c == '*') {
+	            regex.append("[^/]*");
+	        } else if (c == '?') {
+	            regex.append("[^/]");
+	        } else {
+	            regex.append(Pattern.quote(String.valueOf(c)));
+	        }
+	    }
+	    return Pattern.compile(regex.toString());
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,225 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of compiled CSS, keyed by a hash of the LESS input and the configuration of the compiler.
+ * <p>
+ * Inputs that fail to compile are cached as well, so a broken stylesheet that is requested over and over is not
+ * compiled again until the failure expires. The cache holds a limited number of entries and evicts the least
+ * recently used entry first. A single cache can be shared by any number of compilers.
+ * </p>
+ * <p>
+ * Only compilations of a <code>String</code> or a <code>LessSource</code> are cached. Imports that are left to
+ * the LESS JavaScript to resolve are not part of the key; an entry remembers when each of them was last modified
+ * and is dropped on lookup once one of them has changed.
+ * </p>
+ * <h4>Basic code example:</h4>
+ * <pre>
+ * LessCompiler lessCompiler = new LessCompiler();
+ * lessCompiler.setCache(new CompiledCssCache());
+ * </pre>
+ *
+ * @see LessCompiler#setCache(CompiledCssCache)
+ */
+public class CompiledCssCache {
+
+    private final int maxEntries;
+    private volatile long failureTimeout = 10000;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong failureHitCount = new AtomicLong();
+
+    private final Map<String, Entry> entries;
+
+    /**
+     * Constructs a new <code>CompiledCssCache</code> holding at most 1000 entries.
+     */
+    public CompiledCssCache() {
+        this(1000);
+    }
+
+    /**
+     * Constructs a new <code>CompiledCssCache</code>.
+     *
+     * @param maxEntries The maximum number of entries held by the cache.
+     */
+    @SuppressWarnings("serial")
+    public CompiledCssCache(final int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Maximum number of entries must be positive.");
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the maximum number of entries held by the cache.
+     *
+     * @return The maximum number of entries held by the cache.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Returns the time in milliseconds a failed compilation is cached.
+     *
+     * @return The time in milliseconds a failed compilation is cached.
+     */
+    public long getFailureTimeout() {
+        return failureTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds a failed compilation is cached. Failures are cached for a limited time only
+     * because they may be caused by missing imports. Defaults to 10 seconds, 0 disables caching of failures.
+     *
+     * @param failureTimeout The time in milliseconds a failed compilation is cached.
+     */
+    public void setFailureTimeout(long failureTimeout) {
+        if (failureTimeout < 0) {
+            throw new IllegalArgumentException("Failure timeout must not be negative.");
+        }
+        this.failureTimeout = failureTimeout;
+    }
+
+    /**
+     * Returns the number of lookups that found an entry, including cached failures.
+     *
+     * @return The number of lookups that found an entry.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of lookups that found a cached failure.
+     *
+     * @return The number of lookups that found a cached failure.
+     */
+    public long getFailureHitCount() {
+        return failureHitCount.get();
+    }
+
+    /**
+     * Returns the number of lookups that did not find an entry.
+     *
+     * @return The number of lookups that did not find an entry.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return The number of entries in the cache.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the cached CSS, or <code>null</code> if there is no entry.
+     *
+     * @throws LessException if the compilation failed before.
+     */
+    String get(String key) throws LessException {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.failure != null && System.currentTimeMillis() >= entry.expires) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry != null && !importsAreCurrent(entry)) {
+            synchronized (this) {
+                if (entries.get(key) == entry) {
+                    entries.remove(key);
+                }
+            }
+            entry = null;
+        }
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        if (entry.failure != null) {
+            failureHitCount.incrementAndGet();
+            throw new LessException(entry.failure.getMessage(), entry.failure.getCause());
+        }
+        return entry.css;
+    }
+
+    /**
+     * Caches the CSS compiled from the input, which imported <code>imports</code> with the given last modified times.
+     */
+    synchronized void put(String key, String css, Map<Resource, Long> imports) {
+        entries.put(key, new Entry(css, null, 0, imports));
+    }
+
+    void putFailure(String key, LessException failure) {
+        long timeout = failureTimeout;
+        if (timeout > 0) {
+            synchronized (this) {
+                entries.put(key, new Entry(null, failure, System.currentTimeMillis() + timeout, Collections.<Resource, Long>emptyMap()));
+            }
+        }
+    }
+
+    private static boolean importsAreCurrent(Entry entry) {
+        for (Map.Entry<Resource, Long> imported : entry.imports.entrySet()) {
+            if (imported.getKey().lastModified() != imported.getValue().longValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Entry {
+        private final String css;
+        private final LessException failure;
+        private final long expires;
+        private final Map<Resource, Long> imports;
+
+        private Entry(String css, LessException failure, long expires, Map<Resource, Long> imports) {
+            this.css = css;
+            this.failure = failure;
+            this.expires = expires;
+            this.imports = imports;
+        }
+    }
+}
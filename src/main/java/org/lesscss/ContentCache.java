@@ -0,0 +1,174 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BOMInputStream;
+import org.lesscss.logging.LessLogger;
+import org.lesscss.logging.LessLoggerFactory;
+
+/**
+ * Cache of the content of imported resources.
+ * <p>
+ * Entries are validated against the last modified time of the resource, so a resource is read again
+ * once it changes. Resources without a last modified time are never cached. The cache is bounded by
+ * the total number of cached characters, the least recently used entries are evicted first. A single
+ * cache can be shared by any number of compilers; compilers that are not given one share a cache of
+ * 8M characters.
+ * </p>
+ * <h4>Basic code example:</h4>
+ * <pre>
+ * LessCompiler lessCompiler = new LessCompiler();
+ * lessCompiler.setContentCache(new ContentCache(32 * 1024 * 1024));
+ * </pre>
+ *
+ * @see LessCompiler#setContentCache(ContentCache)
+ */
+public class ContentCache {
+
+    private static final LessLogger logger = LessLoggerFactory.getLogger(ContentCache.class);
+
+    private static final ContentCache instance = new ContentCache();
+
+    private final long maxSize;
+    private long size = 0;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * Constructs a new <code>ContentCache</code> holding at most 8M characters.
+     */
+    public ContentCache() {
+        this(8 * 1024 * 1024);
+    }
+
+    /**
+     * Constructs a new <code>ContentCache</code>.
+     *
+     * @param maxSize The maximum number of characters held by the cache.
+     */
+    public ContentCache(long maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be positive.");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cache shared by the compilers that are not given one.
+     */
+    static ContentCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the maximum number of characters held by the cache.
+     *
+     * @return The maximum number of characters held by the cache.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of characters held by the cache.
+     *
+     * @return The number of characters held by the cache.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Returns the content of the resource, reading it only if it is not cached or has been modified.
+     */
+    String getContent(Resource resource, Charset charset) throws IOException {
+        String key = resource.getName() + "|" + charset.name();
+        long lastModified = resource.lastModified();
+        if (lastModified != 0) {
+            synchronized (this) {
+                Entry entry = entries.get(key);
+                if (entry != null && entry.lastModified == lastModified) {
+                    return entry.content;
+                }
+            }
+        }
+
+        String content = read(resource, charset);
+
+        if (lastModified != 0 && content.length() <= maxSize) {
+            synchronized (this) {
+                Entry previous = entries.put(key, new Entry(lastModified, content));
+                if (previous != null) {
+                    size -= previous.content.length();
+                }
+                size += content.length();
+                evict();
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            size -= eldest.getValue().content.length();
+            it.remove();
+            logger.debug("Evicted %s from content cache", eldest.getKey());
+        }
+    }
+
+    /**
+     * Reads the resource, using the charset of its byte order mark if it has one.
+     */
+    static String read(Resource resource, Charset charset) throws IOException {
+        BOMInputStream inputStream = new BOMInputStream(resource.getInputStream());
+        try {
+            if (inputStream.hasBOM()) {
+                logger.debug("BOM found %s", inputStream.getBOMCharsetName());
+                return IOUtils.toString(inputStream, inputStream.getBOMCharsetName());
+            } else {
+                logger.debug("Using charset " + charset.name());
+                return IOUtils.toString(inputStream, charset.name());
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static class Entry {
+        private final long lastModified;
+        private final String content;
+
+        private Entry(long lastModified, String content) {
+            this.lastModified = lastModified;
+            this.content = content;
+        }
+    }
+}
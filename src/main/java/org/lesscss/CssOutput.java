@@ -0,0 +1,84 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * The <code>lessOutput(css)</code> function the LESSC script calls with every chunk of CSS it generates, when
+ * the CSS is written through to a <code>Writer</code> instead of being returned as a <code>String</code>.
+ * <p>
+ * An <code>IOException</code> of the writer aborts the compilation, it is kept so the compiler can throw it
+ * instead of a <code>LessException</code>.
+ * </p>
+ */
+@SuppressWarnings("serial")
+final class CssOutput extends BaseFunction {
+
+    private final Writer writer;
+    private IOException exception;
+    private long length;
+
+    CssOutput(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public String getFunctionName() {
+        return "lessOutput";
+    }
+
+    @Override
+    public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+        try {
+            String css = Context.toString(args[0]);
+            writer.write(css);
+            length += css.length();
+        } catch (IOException e) {
+            exception = e;
+            throw Context.throwAsScriptRuntimeEx(e);
+        }
+        return Context.getUndefinedValue();
+    }
+
+    /**
+     * Returns the number of characters written so far.
+     */
+    long getWrittenLength() {
+        return length;
+    }
+
+    /**
+     * Throws the exception of the writer if writing failed.
+     */
+    void rethrow() throws IOException {
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Ends the CSS with a line break, like the CSS returned as a <code>String</code>, and flushes the writer.
+     */
+    void finish() throws IOException {
+        writer.write('\n');
+        writer.flush();
+    }
+}
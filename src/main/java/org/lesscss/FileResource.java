@@ -13,16 +13,29 @@ import java.io.InputStream;
 public class FileResource implements Resource {
 
     private File file;
+    private final FileStatCache statCache;
 
     public FileResource(File file) {
+        this(file, null);
+    }
+
+    /**
+     * Constructs a <code>FileResource</code> that checks whether the file exists and when it was last modified
+     * through a cache, as do the resources it creates relative to it.
+     *
+     * @param file The file.
+     * @param statCache The cache of last modified times, or <code>null</code> to check the file every time.
+     */
+    public FileResource(File file, FileStatCache statCache) {
         if (file == null) {
             throw new IllegalArgumentException("File must not be null!");
         }
         this.file = file;
+        this.statCache = statCache;
     }
 
     public boolean exists() {
-        return file.exists();
+        return statCache != null ? statCache.exists(file) : file.exists();
     }
 
     public InputStream getInputStream() throws IOException {
@@ -30,12 +43,12 @@ public class FileResource implements Resource {
     }
 
     public long lastModified() {
-        return file.lastModified();
+        return statCache != null ? statCache.lastModified(file) : file.lastModified();
     }
 
     public Resource createRelative(String relativePath) {
         File relativeFile = new File(file.getParentFile(), relativePath);
-        return new FileResource(relativeFile);
+        return new FileResource(relativeFile, statCache);
     }
 
     @Override
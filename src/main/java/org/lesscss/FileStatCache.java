@@ -0,0 +1,191 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Cache of the last modified times of files, so checking whether a stylesheet has to be compiled again does not
+ * touch the file system for every file it imports.
+ * <p>
+ * A file is checked at most once per time to live. Changes made within that time are noticed late, unless the file
+ * is invalidated; a {@link LessWatcher} given the cache invalidates every file it sees change, so the cache can use
+ * a long time to live while the watcher runs. The cache holds a limited number of files and evicts the least
+ * recently used file first.
+ * </p>
+ * <h4>Basic code example:</h4>
+ * <pre>
+ * FileStatCache statCache = new FileStatCache(2000);
+ * LessSource source = new LessSource(new FileResource(new File("main.less"), statCache));
+ * lessCompiler.compile(source, new File("main.css"), false);
+ * </pre>
+ *
+ * @see FileResource#FileResource(File, FileStatCache)
+ */
+public class FileStatCache {
+
+    private final long timeToLive;
+    private final Map<String, Stat> stats;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Constructs a new <code>FileStatCache</code> holding at most 10000 files.
+     *
+     * @param timeToLive The time in milliseconds the last modified time of a file is cached.
+     */
+    public FileStatCache(long timeToLive) {
+        this(timeToLive, 10000);
+    }
+
+    /**
+     * Constructs a new <code>FileStatCache</code>.
+     *
+     * @param timeToLive The time in milliseconds the last modified time of a file is cached.
+     * @param maxEntries The maximum number of files held by the cache.
+     */
+    @SuppressWarnings("serial")
+    public FileStatCache(long timeToLive, final int maxEntries) {
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("Time to live must not be negative.");
+        }
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Maximum number of entries must be positive.");
+        }
+        this.timeToLive = timeToLive;
+        this.stats = new LinkedHashMap<String, Stat>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Stat> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the time in milliseconds the last modified time of a file is cached.
+     *
+     * @return The time in milliseconds the last modified time of a file is cached.
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Returns the number of checks answered from the cache.
+     *
+     * @return The number of checks answered from the cache.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of checks that went to the file system.
+     *
+     * @return The number of checks that went to the file system.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of files in the cache.
+     *
+     * @return The number of files in the cache.
+     */
+    public synchronized int size() {
+        return stats.size();
+    }
+
+    /**
+     * Forgets the last modified time of a file, so the next check goes to the file system.
+     *
+     * @param file The file that changed.
+     */
+    public void invalidate(File file) {
+        String key = key(file);
+        synchronized (this) {
+            stats.remove(key);
+        }
+    }
+
+    /**
+     * Forgets the last modified times of all files.
+     */
+    public synchronized void clear() {
+        stats.clear();
+    }
+
+    /**
+     * Returns the last modified time of the file, or 0 if it does not exist.
+     */
+    long lastModified(File file) {
+        return stat(file).lastModified;
+    }
+
+    boolean exists(File file) {
+        return stat(file).exists;
+    }
+
+    private Stat stat(File file) {
+        String key = key(file);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Stat stat = stats.get(key);
+            if (stat != null && now < stat.expires) {
+                hitCount.incrementAndGet();
+                return stat;
+            }
+        }
+        missCount.incrementAndGet();
+        long lastModified = file.lastModified();
+        // a file can exist with a last modified time of 0, only then a second call is needed
+        Stat stat = new Stat(lastModified, lastModified != 0 || file.exists(), now + timeToLive);
+        synchronized (this) {
+            stats.put(key, stat);
+        }
+        return stat;
+    }
+
+    /**
+     * Returns the path a check or invalidation is kept under. Imports resolve to paths such as
+     * <code>dir/sub/../mixins.less</code> while a watcher sees <code>dir/mixins.less</code> change, so both are
+     * normalized to the same absolute path. This does not touch the file system, so a hit stays cheap; symbolic
+     * links are not resolved.
+     */
+    private static String key(File file) {
+        String path = file.getAbsolutePath();
+        String normalized = FilenameUtils.normalize(path);
+        return normalized != null ? normalized : path;
+    }
+
+    private static class Stat {
+        private final long lastModified;
+        private final boolean exists;
+        private final long expires;
+
+        private Stat(long lastModified, boolean exists, long expires) {
+            this.lastModified = lastModified;
+            this.exists = exists;
+            this.expires = expires;
+        }
+    }
+}
@@ -1,30 +1,45 @@
 package org.lesscss;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
-import java.net.URLConnection;
 
+/**
+ * A resource fetched over HTTP. Responses are cached by a {@link HttpResourceCache}, the default cache unless
+ * another one is given, so a resource is fetched once rather than for each of its methods. A response the cache
+ * may not keep fresh, such as one marked <code>no-store</code> or <code>no-cache</code>, is reused by the
+ * resource for a second, long enough to check and read it once.
+ */
 public class HttpResource implements Resource {
 
+    private static final long REUSE_TIME = 1000;
+
     URI url;
+    private final HttpResourceCache cache;
+    private volatile HttpResourceCache.Entry last;
 
     public HttpResource(String url) throws URISyntaxException {
-        this.url = new URI( url );
+        this( new URI( url ) );
     }
 
     public HttpResource(URI url) {
+        this(url, HttpResourceCache.getDefault());
+    }
+
+    public HttpResource(URI url, HttpResourceCache cache) {
+        if (cache == null) {
+            throw new IllegalArgumentException("Cache must not be null!");
+        }
         this.url = url;
+        this.cache = cache;
     }
 
     public boolean exists() {
         try {
-            URL u = url.toURL();
-            URLConnection connection = u.openConnection();
-            connection.connect();
-            return true;
+            return entry() != null;
         } catch (IOException e) {
             return false;
         }
@@ -32,21 +47,34 @@ public class HttpResource implements Resource {
 
     public long lastModified() {
         try {
-            URL u = url.toURL();
-            URLConnection connection = u.openConnection();
-            return connection.getLastModified();
+            HttpResourceCache.Entry entry = entry();
+            return entry != null ? entry.lastModified : 0;
         } catch( IOException e ) {
             return 0;
         }
     }
 
     public InputStream getInputStream() throws IOException {
-        return url.toURL().openStream();
+        HttpResourceCache.Entry entry = entry();
+        if (entry == null) {
+            throw new FileNotFoundException(url.toString());
+        }
+        return new ByteArrayInputStream(entry.body);
+    }
+
+    private HttpResourceCache.Entry entry() throws IOException {
+        HttpResourceCache.Entry entry = last;
+        if (entry != null && System.currentTimeMillis() - entry.received < REUSE_TIME) {
+            return entry;
+        }
+        entry = cache.get(url);
+        last = entry;
+        return entry;
     }
 
     public Resource createRelative(String relativeResourcePath) throws IOException {
         try {
-            return new HttpResource(url.resolve(new URI(relativeResourcePath)));
+            return new HttpResource(url.resolve(new URI(relativeResourcePath)), cache);
         } catch (URISyntaxException e) {
             throw (IOException)new IOException( "Could not resolve " + url + " against " + relativeResourcePath ).initCause(e);
         }
@@ -55,4 +83,9 @@ public class HttpResource implements Resource {
     public String getName() {
         return url.toASCIIString();
     }
+
+    @Override
+    public String toString() {
+        return url.toString();
+    }
 }
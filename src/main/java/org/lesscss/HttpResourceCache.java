@@ -0,0 +1,634 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.lesscss.logging.LessLogger;
+import org.lesscss.logging.LessLoggerFactory;
+
+/**
+ * Cache of the resources {@link HttpResource}s fetch over HTTP.
+ * <p>
+ * A resource is fetched with a single request and then served from the cache while it is fresh: for the
+ * <code>max-age</code> of its <code>Cache-Control</code> header, or else the time to live of the cache. After that
+ * it is revalidated with a conditional request using its <code>ETag</code> and <code>Last-Modified</code> headers,
+ * and only downloaded again if it has changed. When the server cannot be reached, times out or fails, the cached
+ * copy is used. Resources the server marks <code>no-store</code> are never cached nor revalidated, they are
+ * downloaded again for every read. Threads that need the same resource at the same time share a single request.
+ * </p>
+ * <p>
+ * Cached resources are kept in memory, bounded by their total size, and optionally in a directory so they are
+ * still cached after a restart. The directory is bounded by total size as well. The least recently used resources
+ * are evicted first.
+ * </p>
+ * <h4>Basic code example:</h4>
+ * <pre>
+ * HttpResourceCache cache = new HttpResourceCache(8 * 1024 * 1024, new File("target/less-cache"), 64 * 1024 * 1024);
+ * cache.setTimeToLive(60 * 60 * 1000);
+ * LessSource source = new LessSource(new HttpResource(new URI("http://cdn.example.com/theme.less"), cache));
+ * </pre>
+ *
+ * @see HttpResource
+ */
+public class HttpResourceCache {
+
+    private static final LessLogger logger = LessLoggerFactory.getLogger(HttpResourceCache.class);
+
+    private static final HttpResourceCache defaultCache = new HttpResourceCache();
+
+    private static final Pattern MAX_AGE = Pattern.compile("max-age\\s*=\\s*(\\d+)");
+
+    private final long maxMemorySize;
+    private final File directory;
+    private final long maxDiskSize;
+    private volatile long timeToLive = 10000;
+    private volatile int connectTimeout = 10000;
+    private volatile int readTimeout = 30000;
+
+    private long memorySize = 0;
+    private final Object diskLock = new Object();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final ConcurrentMap<String, FutureTask<Entry>> fetches = new ConcurrentHashMap<String, FutureTask<Entry>>();
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong notModifiedCount = new AtomicLong();
+    private final AtomicLong staleCount = new AtomicLong();
+
+    /**
+     * Constructs a new <code>HttpResourceCache</code> holding at most 8 MB in memory.
+     */
+    public HttpResourceCache() {
+        this(8 * 1024 * 1024, null, 0);
+    }
+
+    /**
+     * Constructs a new <code>HttpResourceCache</code>.
+     *
+     * @param maxMemorySize The maximum total size in bytes of the resources kept in memory.
+     * @param directory The directory to keep resources in, or <code>null</code> to keep them in memory only.
+     * @param maxDiskSize The maximum total size in bytes of the resources kept in the directory.
+     */
+    public HttpResourceCache(long maxMemorySize, File directory, long maxDiskSize) {
+        if (maxMemorySize < 0) {
+            throw new IllegalArgumentException("Maximum memory size must not be negative.");
+        }
+        if (directory != null && maxDiskSize <= 0) {
+            throw new IllegalArgumentException("Maximum disk size must be positive.");
+        }
+        this.maxMemorySize = maxMemorySize;
+        this.directory = directory;
+        this.maxDiskSize = maxDiskSize;
+    }
+
+    /**
+     * Returns the cache used by <code>HttpResource</code>s that are constructed without a cache.
+     *
+     * @return The default cache.
+     */
+    public static HttpResourceCache getDefault() {
+        return defaultCache;
+    }
+
+    /**
+     * Returns the time in milliseconds a resource is served without revalidating it, unless the server sets a
+     * <code>max-age</code>.
+     *
+     * @return The time in milliseconds a resource is served without revalidating it.
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Sets the time in milliseconds a resource is served without revalidating it, unless the server sets a
+     * <code>max-age</code>. Defaults to 10 seconds, 0 revalidates a resource every time it is used.
+     *
+     * @param timeToLive The time in milliseconds a resource is served without revalidating it.
+     */
+    public void setTimeToLive(long timeToLive) {
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("Time to live must not be negative.");
+        }
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Returns the timeout in milliseconds for connecting to a server.
+     *
+     * @return The timeout in milliseconds for connecting to a server.
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets the timeout in milliseconds for connecting to a server. Defaults to 10 seconds.
+     *
+     * @param connectTimeout The timeout in milliseconds for connecting to a server, 0 waits forever.
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        if (connectTimeout < 0) {
+            throw new IllegalArgumentException("Connect timeout must not be negative.");
+        }
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Returns the timeout in milliseconds for reading a response.
+     *
+     * @return The timeout in milliseconds for reading a response.
+     */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Sets the timeout in milliseconds for reading a response. Defaults to 30 seconds.
+     *
+     * @param readTimeout The timeout in milliseconds for reading a response, 0 waits forever.
+     */
+    public void setReadTimeout(int readTimeout) {
+        if (readTimeout < 0) {
+            throw new IllegalArgumentException("Read timeout must not be negative.");
+        }
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Returns the number of requests sent, including conditional requests.
+     *
+     * @return The number of requests sent.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of times a fresh resource was served without a request.
+     *
+     * @return The number of times a resource was served without a request.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of conditional requests answered with <code>304 Not Modified</code>.
+     *
+     * @return The number of conditional requests answered with <code>304 Not Modified</code>.
+     */
+    public long getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    /**
+     * Returns the number of times a cached resource was served because revalidating it failed.
+     *
+     * @return The number of times a cached resource was served because revalidating it failed.
+     */
+    public long getStaleCount() {
+        return staleCount.get();
+    }
+
+    /**
+     * Returns the number of resources in memory.
+     *
+     * @return The number of resources in memory.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes all resources from memory and from the directory.
+     */
+    public void clear() {
+        synchronized (this) {
+            entries.clear();
+            memorySize = 0;
+        }
+        if (directory != null) {
+            synchronized (diskLock) {
+                File[] files = directory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        if (file.getName().endsWith(".body") || file.getName().endsWith(".properties")) {
+                            FileUtils.deleteQuietly(file);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the resource at the URL, fetching it if it is not cached or revalidating it if it is no longer fresh,
+     * or <code>null</code> if the server says it does not exist.
+     *
+     * @throws IOException If the resource cannot be fetched and is not cached.
+     */
+    Entry get(final URI url) throws IOException {
+        final String key = url.toASCIIString();
+        final Entry cached = lookup(key);
+        final long now = System.currentTimeMillis();
+        if (cached != null && now < cached.expires) {
+            hitCount.incrementAndGet();
+            return cached;
+        }
+
+        // the threads that need the resource while it is fetched wait for that request instead of sending their own
+        FutureTask<Entry> task = new FutureTask<Entry>(new Callable<Entry>() {
+            public Entry call() throws IOException {
+                return revalidate(url, key, cached, now);
+            }
+        });
+        FutureTask<Entry> running = fetches.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                fetches.remove(key, task);
+            }
+        }
+        return await(running, url);
+    }
+
+    private static Entry await(FutureTask<Entry> task, URI url) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new InterruptedIOException("Interrupted while fetching " + url).initCause(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (IOException) new IOException(cause.getMessage()).initCause(cause);
+        }
+    }
+
+    /**
+     * Fetches or revalidates the resource and updates the cache with the response.
+     */
+    private Entry revalidate(URI url, String key, Entry cached, long now) throws IOException {
+        Entry fetched;
+        try {
+            fetched = fetch(url, cached, now);
+        } catch (IOException e) {
+            if (cached == null) {
+                throw e;
+            }
+            staleCount.incrementAndGet();
+            LessLoggerFactory.warn(logger, "Could not revalidate " + key + ", using the cached copy: " + e);
+            return cached;
+        }
+
+        if (fetched == null || (!fetched.store && cached != null)) {
+            remove(key);
+        } else if (cached != null && fetched.body == cached.body) {
+            // not modified, only the metadata has to be updated
+            update(key, fetched);
+        } else if (fetched.store) {
+            store(key, fetched);
+        }
+        return fetched;
+    }
+
+    private Entry fetch(URI url, Entry cached, long now) throws IOException {
+        URLConnection connection = url.toURL().openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setUseCaches(false);
+        if (cached != null) {
+            if (cached.etag != null) {
+                connection.setRequestProperty("If-None-Match", cached.etag);
+            }
+            if (cached.lastModified != 0) {
+                connection.setIfModifiedSince(cached.lastModified);
+            }
+        }
+        requestCount.incrementAndGet();
+
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            int status = httpConnection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                notModifiedCount.incrementAndGet();
+                logger.debug("%s not modified", url);
+                return new Entry(cached.body, cached.etag, cached.lastModified, expires(connection, now), cached.store, now);
+            }
+            if (status >= 400) {
+                try {
+                    if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+                        return null;
+                    }
+                    throw new IOException("Server returned HTTP response code " + status + " for " + url);
+                } finally {
+                    // the body of the error is not needed, release the connection
+                    IOUtils.closeQuietly(httpConnection.getErrorStream());
+                }
+            }
+        }
+
+        InputStream in = connection.getInputStream();
+        byte[] body;
+        try {
+            body = IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        boolean store = cacheControl == null || cacheControl.indexOf("no-store") < 0;
+        logger.debug("Fetched %s, %d bytes", url, body.length);
+        return new Entry(body, connection.getHeaderField("ETag"), connection.getLastModified(), expires(connection, now), store, now);
+    }
+
+    /**
+     * Returns the time until which a response is fresh.
+     */
+    private long expires(URLConnection connection, long now) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            if (cacheControl.indexOf("no-cache") >= 0 || cacheControl.indexOf("no-store") >= 0) {
+                return now;
+            }
+            Matcher matcher = MAX_AGE.matcher(cacheControl);
+            if (matcher.find()) {
+                return now + Long.parseLong(matcher.group(1)) * 1000;
+            }
+        }
+        return now + timeToLive;
+    }
+
+    private Entry lookup(String key) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null || directory == null) {
+                return entry;
+            }
+        }
+        Entry entry = readFromDisk(key);
+        if (entry != null) {
+            putInMemory(key, entry);
+        }
+        return entry;
+    }
+
+    private void store(String key, Entry entry) {
+        putInMemory(key, entry);
+        if (directory != null) {
+            writeToDisk(key, entry);
+        }
+    }
+
+    private void update(String key, Entry entry) {
+        putInMemory(key, entry);
+        if (directory != null && entry.body.length <= maxDiskSize) {
+            synchronized (diskLock) {
+                String name = fileName(key);
+                File bodyFile = new File(directory, name + ".body");
+                if (bodyFile.isFile()) {
+                    writeProperties(key, entry, name);
+                    bodyFile.setLastModified(System.currentTimeMillis());
+                } else {
+                    writeToDisk(key, entry, name);
+                    evictFromDisk();
+                }
+            }
+        }
+    }
+
+    private synchronized void putInMemory(String key, Entry entry) {
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            memorySize -= previous.body.length;
+        }
+        if (entry.body.length > maxMemorySize) {
+            return;
+        }
+        entries.put(key, entry);
+        memorySize += entry.body.length;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (memorySize > maxMemorySize && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            memorySize -= eldest.getValue().body.length;
+            it.remove();
+            logger.debug("Evicted %s from HTTP resource cache", eldest.getKey());
+        }
+    }
+
+    private void remove(String key) {
+        synchronized (this) {
+            Entry previous = entries.remove(key);
+            if (previous != null) {
+                memorySize -= previous.body.length;
+            }
+        }
+        if (directory != null) {
+            String name = fileName(key);
+            FileUtils.deleteQuietly(new File(directory, name + ".body"));
+            FileUtils.deleteQuietly(new File(directory, name + ".properties"));
+        }
+    }
+
+    private Entry readFromDisk(String key) {
+        String name = fileName(key);
+        File bodyFile = new File(directory, name + ".body");
+        File propertiesFile = new File(directory, name + ".properties");
+        if (!bodyFile.isFile() || !propertiesFile.isFile()) {
+            return null;
+        }
+        try {
+            Properties properties = new Properties();
+            InputStream in = new FileInputStream(propertiesFile);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+            if (!key.equals(properties.getProperty("url"))) {
+                return null;
+            }
+            byte[] body = FileUtils.readFileToByteArray(bodyFile);
+            bodyFile.setLastModified(System.currentTimeMillis());
+            return new Entry(body, properties.getProperty("etag"), Long.parseLong(properties.getProperty("lastModified", "0")),
+                    Long.parseLong(properties.getProperty("expires", "0")), true, 0);
+        } catch (IOException e) {
+            logger.debug("Could not read %s from %s: %s", key, directory, e.getMessage());
+            return null;
+        } catch (NumberFormatException e) {
+            logger.debug("Could not read %s from %s: %s", key, directory, e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Entry entry) {
+        if (entry.body.length > maxDiskSize) {
+            return;
+        }
+        synchronized (diskLock) {
+            writeToDisk(key, entry, fileName(key));
+            evictFromDisk();
+        }
+    }
+
+    private void writeToDisk(String key, Entry entry, String name) {
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+            FileUtils.writeByteArrayToFile(new File(directory, name + ".body"), entry.body);
+        } catch (IOException e) {
+            logger.debug("Could not write %s to %s: %s", key, directory, e.getMessage());
+            return;
+        }
+        writeProperties(key, entry, name);
+    }
+
+    private void writeProperties(String key, Entry entry, String name) {
+        try {
+            Properties properties = new Properties();
+            properties.setProperty("url", key);
+            if (entry.etag != null) {
+                properties.setProperty("etag", entry.etag);
+            }
+            properties.setProperty("lastModified", Long.toString(entry.lastModified));
+            properties.setProperty("expires", Long.toString(entry.expires));
+            OutputStream out = new FileOutputStream(new File(directory, name + ".properties"));
+            try {
+                properties.store(out, null);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            logger.debug("Could not write %s to %s: %s", key, directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the least recently used resources from the directory until it is within its maximum size.
+     */
+    private void evictFromDisk() {
+        File[] bodies = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".body");
+            }
+        });
+        if (bodies == null) {
+            return;
+        }
+        long size = 0;
+        for (File body : bodies) {
+            size += body.length();
+        }
+        if (size <= maxDiskSize) {
+            return;
+        }
+        Arrays.sort(bodies, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+        for (int i = 0; i < bodies.length && size > maxDiskSize; i++) {
+            File body = bodies[i];
+            size -= body.length();
+            String name = body.getName().substring(0, body.getName().length() - ".body".length());
+            FileUtils.deleteQuietly(body);
+            FileUtils.deleteQuietly(new File(directory, name + ".properties"));
+            logger.debug("Evicted %s from %s", name, directory);
+        }
+    }
+
+    /**
+     * Returns the SHA-1 hash of the URL as a hex string, the name of the files the resource is kept in.
+     */
+    private static String fileName(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A cached response.
+     */
+    static final class Entry {
+        final byte[] body;
+        final String etag;
+        final long lastModified;
+        final long expires;
+        /** False if the server does not allow the response to be stored. */
+        final boolean store;
+        /** The time the response was received, or 0 if it was read from the directory. */
+        final long received;
+
+        Entry(byte[] body, String etag, long lastModified, long expires, boolean store, long received) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+            this.store = store;
+            this.received = received;
+        }
+    }
+}
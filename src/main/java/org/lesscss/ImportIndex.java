@@ -0,0 +1,195 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.io.filefilter.FileFilterUtils;
+import org.lesscss.logging.LessLogger;
+import org.lesscss.logging.LessLoggerFactory;
+
+/**
+ * Index of which LESS files import which, built from the imports of their {@link LessSource}.
+ * <p>
+ * Files are added to the index explicitly, files they import are known to the index but are not members. The
+ * root stylesheets are the members that no other member imports. All files are canonical. The index is not thread safe.
+ * </p>
+ */
+final class ImportIndex {
+
+    private static final LessLogger logger = LessLoggerFactory.getLogger(ImportIndex.class);
+
+    /** The files imported by each file. */
+    private final Map<File, Set<File>> imports = new HashMap<File, Set<File>>();
+    /** The files importing each file. */
+    private final Map<File, Set<File>> importers = new HashMap<File, Set<File>>();
+    private final Set<File> members = new HashSet<File>();
+    /** Shares the sources of files imported by many members, only their imports are kept. */
+    private final LessSourceFactory sources = new LessSourceFactory();
+
+    ImportIndex() {
+        sources.setContentRetained(false);
+    }
+
+    /**
+     * Adds the file to the index, replacing what was known about its imports. If the imports can't be read, the
+     * imports that were known before are kept.
+     */
+    void add(File file) {
+        members.add(file);
+        Map<File, Set<File>> found = new HashMap<File, Set<File>>();
+        try {
+            collectImports(sources.getSource(file), file, found);
+        } catch (IOException e) {
+            logger.debug("Could not read the imports of %s: %s", file, e.getMessage());
+            return;
+        }
+        for (Map.Entry<File, Set<File>> entry : found.entrySet()) {
+            setImports(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the source of the file, sharing the sources of the imports with the index.
+     */
+    LessSource getSource(File file) throws IOException {
+        return sources.getSource(file);
+    }
+
+    /**
+     * Removes the file from the index. The files that import it are kept, so they are still affected by it when it
+     * is added again.
+     */
+    void remove(File file) {
+        members.remove(file);
+        setImports(file, Collections.<File>emptySet());
+        imports.remove(file);
+    }
+
+    /**
+     * Returns the members that no other member imports.
+     */
+    Set<File> getRoots() {
+        Set<File> roots = new TreeSet<File>();
+        for (File file : members) {
+            if (!hasImportingMember(file)) {
+                roots.add(file);
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * Adds the roots that import the file, directly or indirectly, or the file itself if it is a root.
+     */
+    void collectRoots(File file, Set<File> roots) {
+        collectRoots(file, roots, new HashSet<File>());
+    }
+
+    private void collectRoots(File file, Set<File> roots, Set<File> visited) {
+        if (!visited.add(file)) {
+            return;
+        }
+        if (members.contains(file) && !hasImportingMember(file)) {
+            roots.add(file);
+        }
+        Set<File> fileImporters = importers.get(file);
+        if (fileImporters != null) {
+            for (File importer : fileImporters) {
+                collectRoots(importer, roots, visited);
+            }
+        }
+    }
+
+    private boolean hasImportingMember(File file) {
+        Set<File> fileImporters = importers.get(file);
+        if (fileImporters != null) {
+            for (File importer : fileImporters) {
+                if (members.contains(importer)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void collectImports(LessSource source, File file, Map<File, Set<File>> found) throws IOException {
+        if (found.containsKey(file)) {
+            return;
+        }
+        Set<File> fileImports = new HashSet<File>();
+        found.put(file, fileImports);
+        for (LessSource imported : source.getImports().values()) {
+            if (imported.getResource() instanceof FileResource) {
+                File importedFile = new File(imported.getName()).getCanonicalFile();
+                fileImports.add(importedFile);
+                collectImports(imported, importedFile, found);
+            }
+        }
+    }
+
+    private void setImports(File file, Set<File> fileImports) {
+        Set<File> previous = imports.put(file, fileImports);
+        if (previous != null) {
+            for (File imported : previous) {
+                Set<File> importedBy = importers.get(imported);
+                if (importedBy != null) {
+                    importedBy.remove(file);
+                }
+            }
+        }
+        for (File imported : fileImports) {
+            Set<File> importedBy = importers.get(imported);
+            if (importedBy == null) {
+                importedBy = new HashSet<File>();
+                importers.put(imported, importedBy);
+            }
+            importedBy.add(file);
+        }
+    }
+
+    /**
+     * Returns a filter accepting directories and <code>.less</code> files.
+     */
+    static FileFilter lessFileFilter() {
+        return FileFilterUtils.or(FileFilterUtils.directoryFileFilter(), FileFilterUtils.suffixFileFilter(".less"));
+    }
+
+    /**
+     * Adds the <code>.less</code> files in the directory and its subdirectories to <code>files</code>.
+     */
+    static void listLessFiles(File directory, List<File> files) {
+        File[] children = directory.listFiles(lessFileFilter());
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                listLessFiles(child, files);
+            } else {
+                files.add(child);
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the <code>@import</code> statements of a LESS source in a single pass over its content.
+ * <p>
+ * Comments and strings are skipped, so imports that are commented out are not found. Only imports of a quoted
+ * file name, optionally in <code>url()</code> or preceded by a <code>(less)</code> or <code>(css)</code> option,
+ * are found; other imports are left to the LESS compiler.
+ * </p>
+ */
+final class ImportScanner {
+
+    private static final String IMPORT = "@import";
+
+    /**
+     * An <code>@import</code> statement.
+     */
+    static final class Import {
+
+        /** The offset of the <code>@import</code> keyword. */
+        final int start;
+        /** The offset after the semicolon that ends the statement. */
+        final int end;
+        /** The imported file name, as written. */
+        final String path;
+        /** The <code>less</code> or <code>css</code> option, or <code>null</code>. */
+        final String option;
+        /** The media query between the file name and the semicolon, or an empty string. */
+        final String media;
+
+        Import(int start, int end, String path, String option, String media) {
+            this.start = start;
+            this.end = end;
+            this.path = path;
+            this.option = option;
+            this.media = media;
+        }
+    }
+
+    private final String content;
+    private final int length;
+
+    private ImportScanner(String content) {
+        this.content = content;
+        this.length = content.length();
+    }
+
+    /**
+     * Returns the <code>@import</code> statements of the content, in the order they appear.
+     */
+    static List<Import> scan(String content) {
+        return new ImportScanner(content).scan();
+    }
+
+    private List<Import> scan() {
+        List<Import> imports = new ArrayList<Import>();
+        int parentheses = 0;
+        int i = 0;
+        while (i < length) {
+            char c = content.charAt(i);
+            switch (c) {
+            case '/':
+                if (i + 1 < length && content.charAt(i + 1) == '*') {
+                    int end = content.indexOf("*/", i + 2);
+                    i = end < 0 ? length : end + 2;
+                    continue;
+                }
+                // a double slash in parentheses is part of an url, e.g. url(http://...)
+                if (i + 1 < length && content.charAt(i + 1) == '/' && parentheses == 0) {
+                    i = endOfLine(i + 2);
+                    continue;
+                }
+                break;
+            case '"':
+            case '\'':
+                i = endOfString(i);
+                continue;
+            case '(':
+                parentheses++;
+                break;
+            case ')':
+                if (parentheses > 0) {
+                    parentheses--;
+                }
+                break;
+            case '@':
+                if (content.startsWith(IMPORT, i)) {
+                    Import statement = parseImport(i);
+                    if (statement != null) {
+                        imports.add(statement);
+                        i = statement.end;
+                        continue;
+                    }
+                }
+                break;
+            default:
+                break;
+            }
+            i++;
+        }
+        return imports;
+    }
+
+    /**
+     * Parses the <code>@import</code> statement at the offset, or returns <code>null</code> if it is not an import
+     * of a quoted file name.
+     */
+    private Import parseImport(int start) {
+        int i = start + IMPORT.length();
+        if (i >= length || !Character.isWhitespace(content.charAt(i))) {
+            return null;
+        }
+        i = skipWhitespace(i);
+
+        String option = null;
+        if (content.startsWith("url(", i)) {
+            i += 4;
+        } else if (content.startsWith("(less)", i)) {
+            option = "less";
+            i += 6;
+        } else if (content.startsWith("(css)", i)) {
+            option = "css";
+            i += 5;
+        }
+        i = skipWhitespace(i);
+
+        if (i >= length || (content.charAt(i) != '"' && content.charAt(i) != '\'')) {
+            return null;
+        }
+        int close = endOfString(i) - 1;
+        if (close >= length || content.charAt(close) != content.charAt(i) || close == i + 1) {
+            return null;
+        }
+        String path = content.substring(i + 1, close);
+        i = close + 1;
+        if (i < length && content.charAt(i) == ')') {
+            i++;
+        }
+
+        int semicolon = i;
+        while (semicolon < length) {
+            char c = content.charAt(semicolon);
+            if (c == ';') {
+                break;
+            }
+            if (c == '{' || c == '}') {
+                return null;
+            }
+            semicolon++;
+        }
+        if (semicolon == length) {
+            return null;
+        }
+        return new Import(start, semicolon + 1, path, option, content.substring(i, semicolon));
+    }
+
+    private int skipWhitespace(int i) {
+        while (i < length && Character.isWhitespace(content.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private int endOfLine(int i) {
+        while (i < length && content.charAt(i) != '\n' && content.charAt(i) != '\r') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the offset after the closing quote of the string that starts at the offset. Strings do not span lines,
+     * an unterminated string ends at the end of the line.
+     */
+    private int endOfString(int start) {
+        char quote = content.charAt(start);
+        int i = start + 1;
+        while (i < length) {
+            char c = content.charAt(i);
+            if (c == quote) {
+                return i + 1;
+            }
+            if (c == '\n' || c == '\r') {
+                return i;
+            }
+            i += c == '\\' ? 2 : 1;
+        }
+        return length;
+    }
+}
@@ -16,22 +16,38 @@ package org.lesscss;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
-import java.io.SequenceInputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
 import org.lesscss.logging.LessLogger;
 import org.lesscss.logging.LessLoggerFactory;
 import org.mozilla.javascript.Context;
-import org.mozilla.javascript.Function;
+import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.JavaScriptException;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.ScriptRuntime;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
 import org.mozilla.javascript.tools.shell.Global;
@@ -65,16 +81,29 @@ public class LessCompiler {
 
     private static final LessLogger logger = LessLoggerFactory.getLogger(LessCompiler.class);
 
-    private URL lessJs = LessCompiler.class.getClassLoader().getResource("META-INF/less-rhino-1.7.0.js");
-    private URL lesscJs = LessCompiler.class.getClassLoader().getResource("META-INF/lessc-rhino-1.7.0.js");
+    /** The running compilations that others may wait for, by the key of their input and configuration. */
+    private static final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+
+    // the configuration, every field of which copy() has to copy
+    private URL lessJs = ScriptLoader.LESS_JS;
+    private URL lesscJs = ScriptLoader.LESSC_JS;
     private List<URL> customJs = Collections.emptyList();
     private List<String> options = Collections.emptyList();
     private Boolean compress = null;
     private String encoding = null;
+    private boolean sharedScope = false;
+    private CompiledCssCache cache = null;
+    private ContentCache contentCache = ContentCache.getInstance();
+    private boolean coalescing = false;
+    private volatile long timeout = 0;
+    private volatile long instructionLimit = 0;
+    private final List<CompilationListener> listeners = new CopyOnWriteArrayList<CompilationListener>();
     
-    private Scriptable scope;
+    private ContextFactory contextFactory = LessContextFactory.DEFAULT;
+    private volatile Scriptable scope;
     private ByteArrayOutputStream out;
-    private Function compiler; 
+    private List<Script> scripts; 
+    private SharedScope shared;
     
     /**
      * Constructs a new <code>LessCompiler</code>.
@@ -89,6 +118,27 @@ public class LessCompiler {
     	this.options = new ArrayList<String>(options);
     }
     
+    /**
+     * Returns a new compiler with the configuration of this one. The copy is initialized on its own.
+     */
+    synchronized LessCompiler copy() {
+        LessCompiler copy = new LessCompiler(options);
+        copy.lessJs = lessJs;
+        copy.lesscJs = lesscJs;
+        copy.customJs = customJs;
+        copy.compress = compress;
+        copy.encoding = encoding;
+        copy.sharedScope = sharedScope;
+        copy.cache = cache;
+        copy.contentCache = contentCache;
+        copy.coalescing = coalescing;
+        copy.timeout = timeout;
+        copy.instructionLimit = instructionLimit;
+        copy.listeners.addAll(listeners);
+        copy.contextFactory = contextFactory;
+        return copy;
+    }
+    
     public List<String> getOptions() {
 		return Collections.unmodifiableList(options);
 	}
@@ -153,6 +203,8 @@ public class LessCompiler {
     
     /**
      * Sets the LESSC JavaScript file used by the compiler.
+     * When compiling a <code>String</code>, the compiler does not write it to a file but provides it to the
+     * LESSC JavaScript as the <code>lessInput</code> variable, so a custom LESSC JavaScript must read it from there.
      * Must be set before {@link #init()} is called.
      * 
      * @param lesscJs LESSC JavaScript file used by the compiler.
@@ -247,6 +299,192 @@ public class LessCompiler {
         this.encoding = encoding;
     }
     
+    /**
+     * Returns whether the compiler evaluates the LESS JavaScript in a scope shared with other compilers.
+     * 
+     * @return Whether the compiler evaluates the LESS JavaScript in a scope shared with other compilers.
+     */
+    public boolean isSharedScope() {
+        return sharedScope;
+    }
+    
+    /**
+     * Sets the compiler to evaluate the LESS and custom JavaScript only once, in a sealed scope that is shared
+     * with all other compilers using the same JavaScript files.
+     * <p>
+     * Each compilation then runs in a lightweight child scope with its own output, so a single compiler
+     * can be used by many threads at the same time. Custom JavaScript must not depend on being evaluated
+     * again for every compilation.
+     * </p>
+     * Must be set before {@link #init()} is called.
+     * 
+     * @param sharedScope If <code>true</code>, sets the compiler to use a shared scope.
+     */
+    public synchronized void setSharedScope(boolean sharedScope) {
+        if (scope != null) {
+            throw new IllegalStateException("This method can only be called before init()");
+        }
+        this.sharedScope = sharedScope;
+    }
+    
+    /**
+     * Returns the cache of compiled CSS used by the compiler, or <code>null</code> if the compiler does not cache.
+     * 
+     * @return The cache of compiled CSS used by the compiler.
+     */
+    public CompiledCssCache getCache() {
+        return cache;
+    }
+    
+    /**
+     * Sets the cache of compiled CSS used by the compiler when compiling a <code>String</code> or a <code>LessSource</code>.
+     * The cache may be shared with other compilers, the configuration of the compiler is part of the cache key.
+     * Must be set before {@link #init()} is called.
+     * 
+     * @param cache The cache of compiled CSS, or <code>null</code> to not cache.
+     */
+    public synchronized void setCache(CompiledCssCache cache) {
+        if (scope != null) {
+            throw new IllegalStateException("This method can only be called before init()");
+        }
+        this.cache = cache;
+    }
+    
+    /**
+     * Returns the cache of imported content used by the compiler, or <code>null</code> if imports are read every time.
+     * 
+     * @return The cache of imported content used by the compiler.
+     */
+    public ContentCache getContentCache() {
+        return contentCache;
+    }
+    
+    /**
+     * Sets the cache of the content of the files that the LESS JavaScript imports. Defaults to a cache of 8M
+     * characters shared by all compilers that are not given another one. Must be set before {@link #init()} is called.
+     * 
+     * @param contentCache The cache of imported content, or <code>null</code> to read imports every time.
+     */
+    public synchronized void setContentCache(ContentCache contentCache) {
+        if (scope != null) {
+            throw new IllegalStateException("This method can only be called before init()");
+        }
+        this.contentCache = contentCache;
+    }
+    
+    /**
+     * Returns whether concurrent compilations of the same input wait for one compilation and share its result.
+     * 
+     * @return Whether concurrent compilations of the same input are coalesced.
+     */
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+    
+    /**
+     * Sets concurrent compilations of the same input to wait for the one that started first and share its CSS or
+     * <code>LessException</code>, instead of compiling the input again.
+     * <p>
+     * Inputs are the same if their path, content and imports are, and so is the configuration of the compilers,
+     * so compilers configured alike, such as those of a {@link LessCompilerPool}, share compilations too. A file
+     * is the same input as long as its path is. Compilations that write the CSS as it is generated are only
+     * coalesced if the compiler has a cache. Waiting compilations get the warnings of the compilation they waited
+     * for, but are not reported to the listeners.
+     * </p>
+     * Must be set before {@link #init()} is called.
+     * 
+     * @param coalescing If <code>true</code>, concurrent compilations of the same input are coalesced.
+     */
+    public synchronized void setCoalescing(boolean coalescing) {
+        if (scope != null) {
+            throw new IllegalStateException("This method can only be called before init()");
+        }
+        this.coalescing = coalescing;
+    }
+    
+    /**
+     * Returns the time in milliseconds a compilation may take, or 0 if there is no limit.
+     * 
+     * @return The time in milliseconds a compilation may take.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+    
+    /**
+     * Sets the time in milliseconds a compilation may take, including the time it waits for the compiler. A
+     * compilation that takes longer, such as one of a stylesheet with runaway recursive mixins, is stopped with a
+     * {@link CompilationAbortedException}, so it does not hold up the compilations waiting for the compiler.
+     * <p>
+     * The JavaScript checks the time every few thousand instructions, so a compilation may run a little longer.
+     * Compilations can also be stopped by interrupting their thread, e.g. by cancelling the <code>Future</code>
+     * returned by an {@link AsyncLessCompiler}.
+     * </p>
+     * 
+     * @param timeout The time in milliseconds a compilation may take, or 0 for no limit.
+     */
+    public void setTimeout(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative.");
+        }
+        this.timeout = timeout;
+    }
+    
+    /**
+     * Returns the number of JavaScript instructions a compilation may run, or 0 if there is no limit.
+     * 
+     * @return The number of JavaScript instructions a compilation may run.
+     */
+    public long getInstructionLimit() {
+        return instructionLimit;
+    }
+    
+    /**
+     * Sets the number of JavaScript instructions a compilation may run. A compilation that runs more is stopped
+     * with a {@link CompilationAbortedException}. Unlike a timeout, the limit does not depend on the load of the
+     * machine, so the same input always stops at the same point. The limit is checked every few thousand
+     * instructions.
+     * 
+     * @param instructionLimit The number of instructions a compilation may run, or 0 for no limit.
+     */
+    public void setInstructionLimit(long instructionLimit) {
+        if (instructionLimit < 0) {
+            throw new IllegalArgumentException("Instruction limit must not be negative.");
+        }
+        this.instructionLimit = instructionLimit;
+    }
+    
+    /**
+     * Adds a listener that is notified of every compilation. Compilations whose CSS comes from the cache are not
+     * reported.
+     * 
+     * @param listener The <code>CompilationListener</code> to add.
+     */
+    public void addCompilationListener(CompilationListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener must not be null!");
+        }
+        listeners.add(listener);
+    }
+    
+    /**
+     * Removes a listener added by {@link #addCompilationListener(CompilationListener)}.
+     * 
+     * @param listener The <code>CompilationListener</code> to remove.
+     */
+    public void removeCompilationListener(CompilationListener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Returns the listeners that are notified of every compilation.
+     * 
+     * @return The listeners that are notified of every compilation.
+     */
+    public List<CompilationListener> getCompilationListeners() {
+        return Collections.unmodifiableList(listeners);
+    }
+    
     /**
      * Initializes this <code>LessCompiler</code>.
      * <p>
@@ -254,10 +492,22 @@ public class LessCompiler {
      * </p>
      */
     public synchronized void init() {
+        if (sharedScope) {
+            try {
+                shared = SharedScope.get(lessJs, customJs, lesscJs);
+                scope = shared.getScope();
+            } catch (Exception e) {
+                String message = "Failed to initialize LESS compiler.";
+                logger.error(message, e);
+                throw new IllegalStateException(message, e);
+            }
+            return;
+        }
+        
         long start = System.currentTimeMillis();
 
         try {
-	        Context cx = Context.enter();
+	        Context cx = contextFactory.enterContext();
 	        //cx.setOptimizationLevel(-1);
 	        cx.setLanguageVersion(Context.VERSION_1_7);
 	        
@@ -265,29 +515,25 @@ public class LessCompiler {
 	        global.init(cx); 	        
 	        scope = cx.initStandardObjects(global);
             scope.put("logger", scope, Context.toObject(logger, scope));
+            Compilation.defineFunctions(scope);
             
             out = new ByteArrayOutputStream();
             global.setOut(new PrintStream(out));
             
-            // Combine all of the streams (less, custom, lessc) into one big stream
-            List<InputStream> streams = new ArrayList<InputStream>();
+            List<Script> scripts = new ArrayList<Script>();
             
             // less should be first
-            streams.add(lessJs.openConnection().getInputStream());
+            scripts.add(ScriptLoader.load(cx, lessJs));
             
             // then the custom js so it has a chance to add any hooks
 	        for(URL url : customJs) {
-	        	streams.add(url.openConnection().getInputStream());
+	        	scripts.add(ScriptLoader.load(cx, url));
 	        }
 	        
 	        // then the lessc so we can do the compile
-	        streams.add(lesscJs.openConnection().getInputStream());
+	        scripts.add(ScriptLoader.load(cx, lesscJs));
 	        
-	        InputStreamReader reader = new InputStreamReader(new SequenceInputStream(Collections.enumeration(streams)));
-            
-	        // Load the streams into a function we can run 
-            compiler = (Function) cx.compileReader(reader, lessJs.toString(), 1, null);            
-	        	        
+	        this.scripts = scripts;
         }
         catch (Exception e) {
             String message = "Failed to initialize LESS compiler.";
@@ -322,40 +568,241 @@ public class LessCompiler {
      * @throws LessException any error encountered by the compiler
      */
     public String compile(String input, String name) throws LessException {
-    	File tempFile = null;
-    	try {
-	        tempFile = File.createTempFile("tmp", "less.tmp");
-	        FileUtils.writeStringToFile(tempFile, input, this.encoding);
-	    	 	    	    	
-	        return compile( tempFile, name);
-    	} catch (IOException e) {
-            throw new LessException(e);
-    		
-    	} finally {
-    		tempFile.delete();
-    	}
+        // the input is handed to the LESSC script directly, it is never written to a file
+        return compileSource(name, input, null);
+    }
+    
+    /**
+     * Compiles the LESS input <code>String</code> to CSS, adding the warnings of the compilation to
+     * <code>warnings</code> instead of logging them. CSS that comes from the cache has no warnings.
+     *
+     * @param input The LESS input <code>String</code> to compile.
+     * @param name The source's name <code>String</code> to provide better error messages.
+     * @param warnings The <code>List</code> to add the warnings to.
+     * @return the CSS.
+     * @throws LessException any error encountered by the compiler
+     */
+    public String compile(String input, String name, List<String> warnings) throws LessException {
+        return compileSource(name, input, null, null, null, warnings);
+    }
+    
+    /**
+     * Compiles the LESS input <code>String</code> to CSS and writes it to the <code>Writer</code> as it is generated.
+     * The writer is flushed, but not closed. If the compilation fails, part of the CSS may have been written.
+     *
+     * @param input The LESS input <code>String</code> to compile.
+     * @param name The source's name <code>String</code> to provide better error messages.
+     * @param output The <code>Writer</code> to write the CSS to.
+     * @throws IOException If the CSS cannot be written.
+     * @throws LessException any error encountered by the compiler
+     */
+    public void compile(String input, String name, Writer output) throws IOException, LessException {
+        compileTo(name, input, null, null, output);
     }
 
     /**
-     * Compiles the LESS input <code>String</code> to CSS, but specifies the source name <code>String</code>. The entire
-     * method is synchronized so that two threads don't read the output at the same time.
+     * Compiles the LESS input <code>File</code> to CSS, but specifies the source name <code>String</code>. Unless
+     * the compiler uses a shared scope, the compilation is synchronized so that two threads don't read the output
+     * at the same time.
      *
-     * @param input The LESS input <code>String</code> to compile
+     * @param input The LESS input <code>File</code> to compile
      * @param name The source's name <code>String</code> to provide better error messages.
      * @return the CSS.
      *
      * @throws LessException any error encountered by the compiler
      */
-    public synchronized String compile(File input, String name) throws LessException {
+    public String compile(File input, String name) throws LessException {
+        return compileSource(input.getAbsolutePath(), null, new FileResource(input));
+    }
+    
+    /**
+     * Compiles the LESS source at <code>path</code>, using <code>content</code> as its content if not <code>null</code>.
+     * Imports are resolved against <code>resource</code>, or against <code>path</code> if there is no resource.
+     */
+    private String compileSource(String path, String content, Resource resource) throws LessException {
+        return compileSource(path, content, resource, null, null, null);
+    }
+
+    /**
+     * Compiles a <code>LessSource</code>. The LESS JavaScript parses each file of the source separately, as if it
+     * read them itself, so errors point at the file they are in. The files are not read again, their content comes
+     * from the source and its imports.
+     */
+    private String compileSource(LessSource source, List<String> warnings) throws LessException {
+        return compileSource(source.getName(), source.getContent(), source.getResource(), source, null, warnings);
+    }
+    
+    /**
+     * Compiles the LESS source at <code>path</code> like {@link #compileSource(String, String, Resource)}, but
+     * writes the CSS to <code>writer</code> as it is generated. The imports of <code>source</code>, if not
+     * <code>null</code>, are used instead of reading them again.
+     */
+    private void compileTo(String path, String content, Resource resource, LessSource source, Writer writer) throws IOException, LessException {
+        if (cache != null && content != null) {
+            // only complete CSS can be cached
+            writer.write(compileSource(path, content, resource, source, null, null));
+            writer.flush();
+            return;
+        }
+        CssOutput output = new CssOutput(writer);
+        try {
+            compileSource(path, content, resource, source, output, null);
+        } catch (LessException e) {
+            output.rethrow();
+            throw e;
+        }
+        output.finish();
+    }
+    
+    /**
+     * Compiles the LESS source, returning the CSS or, if <code>output</code> is not <code>null</code>, passing it to
+     * <code>output</code> and returning <code>null</code>. Warnings are added to <code>warnings</code>, or logged if
+     * it is <code>null</code>. CSS from the cache comes without warnings.
+     */
+    private String compileSource(String path, String content, Resource resource, LessSource source, CssOutput output,
+            List<String> warnings) throws LessException {
+        long start = System.nanoTime();
+        long initTime = 0;
         if (scope == null) {
             init();
+            initTime = System.nanoTime() - start;
         }
         
+        String key = null;
+        if (cache != null && content != null && output == null) {
+            key = cacheKey(path, content, source);
+            String css = cache.get(key);
+            if (css != null) {
+                return css;
+            }
+        }
+        
+        String flightKey = null;
+        Flight flight = null;
+        if (coalescing && output == null) {
+            // only compilations with the same budget wait for each other, so none is stopped by a smaller one
+            flightKey = (key != null ? key : cacheKey(path, content, source)) + ":" + timeout + ":" + instructionLimit;
+            Flight running;
+            while ((running = flights.putIfAbsent(flightKey, flight = new Flight())) != null) {
+                try {
+                    return running.await(path, warnings, start, timeout);
+                } catch (CompilationAbortedException e) {
+                    // cancelling a compilation only cancels it for its own caller, the others compile again
+                    if (e.getReason() != CompilationAbortedException.Reason.CANCELLED || Thread.currentThread().isInterrupted()) {
+                        throw e;
+                    }
+                }
+            }
+        }
+        
+        Compilation compilation = new Compilation(resource, Charset.defaultCharset(), contentCache);
+        if (source != null) {
+            compilation.addSources(source);
+        }
+        compilation.setBudget(timeout, instructionLimit);
+        compilation.begin();
+        long waitTime = 0;
+        String css = null;
+        LessException failure = null;
+        try {
+            if (shared != null) {
+                css = compileShared(path, content, compilation, output);
+            } else {
+                long waitStart = System.nanoTime();
+                synchronized (this) {
+                    waitTime = System.nanoTime() - waitStart;
+                    css = compileExclusive(path, content, compilation, output);
+                }
+            }
+            if (key != null) {
+                cache.put(key, css, compilation.getReadResources());
+            }
+            if (warnings != null) {
+                warnings.addAll(compilation.getWarnings());
+            } else {
+                for (String warning : compilation.getWarnings()) {
+                    LessLoggerFactory.warn(logger, warning);
+                }
+            }
+            return css;
+        } catch (LessException e) {
+            failure = e;
+            // an aborted compilation may succeed when it gets more time
+            if (key != null && !(e instanceof CompilationAbortedException)) {
+                cache.putFailure(key, e);
+            }
+            throw e;
+        } finally {
+            compilation.end();
+            if (flight != null) {
+                flights.remove(flightKey);
+                flight.land(css, compilation.getWarnings(), failure);
+            }
+            if (!listeners.isEmpty()) {
+                long inputLength = content != null ? content.length() : new File(path).length();
+                // the final line break of streamed CSS is only written once the compilation has finished
+                long outputLength = css != null ? css.length() : output != null && failure == null ? output.getWrittenLength() + 1 : 0;
+                fireCompilationFinished(new CompilationEvent(path, System.nanoTime() - start, initTime, waitTime,
+                        compilation.getPhaseTime("parse", "eval"), compilation.getPhaseTime("eval", "toCSS"),
+                        compilation.getPhaseTime("toCSS", "done"), inputLength, compilation.getImportCount(),
+                        compilation.getImportLength(), outputLength, failure));
+            }
+        }
+    }
+    
+    private void fireCompilationFinished(CompilationEvent event) {
+        for (CompilationListener listener : listeners) {
+            try {
+                listener.compilationFinished(event);
+            } catch (RuntimeException e) {
+                logger.error("Compilation listener " + listener + " failed.", e);
+            }
+        }
+    }
+    
+    /**
+     * Returns the key of the compiled CSS in the cache: a hash of the input and everything in the configuration
+     * that affects the output. Without <code>content</code> the input is the file at <code>path</code>. The imports of <code>source</code>, if not <code>null</code>, are part of the input.
+     */
+    private String cacheKey(String path, String content, LessSource source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            String configuration = lessJs + "\n" + customJs + "\n" + lesscJs + "\n" + options + "\n" + compress + "\n" + path + "\n";
+            digest.update(configuration.getBytes("UTF-8"));
+            if (content != null) {
+                digest.update(content.getBytes("UTF-8"));
+            }
+            if (source != null) {
+                digestImports(digest, source, new HashSet<LessSource>());
+            }
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static void digestImports(MessageDigest digest, LessSource source, Set<LessSource> digested) throws UnsupportedEncodingException {
+        for (LessSource imported : source.getImports().values()) {
+            if (digested.add(imported)) {
+                digest.update(("\n" + imported.getName() + "\n").getBytes("UTF-8"));
+                digest.update(imported.getContent().getBytes("UTF-8"));
+                digestImports(digest, imported, digested);
+            }
+        }
+    }
+    
+    private String compileExclusive(String path, String content, Compilation compilation, CssOutput output) throws LessException {
         long start = System.currentTimeMillis();
         
         try {        	
         	
-        	Context cx = Context.enter();
+        	Context cx = contextFactory.enterContext();
 
         	// The scope for compiling <input>
         	ScriptableObject compileScope = (ScriptableObject)cx.newObject(scope);
@@ -364,73 +811,134 @@ public class LessCompiler {
         	compileScope.setPrototype(scope);
         	compileScope.setParentScope(null);
 
-        	// Copy the default options
-        	List<String> options = new ArrayList<String>(this.options);
-        	// Set up the arguments for <input>
-        	options.add(input.getAbsolutePath());
-        	
-        	// Add compress if the value is set for backward compatibility
-        	if (this.compress != null && this.compress.booleanValue()) {
-        		options.add("-x");
-        	}
-        	
-            Scriptable argsObj = cx.newArray(compileScope, options.toArray(new Object[options.size()]));
-            //Scriptable argsObj = cx.newArray(compileScope, new Object[] {"-ru", "c.less"});
-       	 	compileScope.defineProperty("arguments", argsObj, ScriptableObject.DONTENUM);
+            defineArguments(cx, compileScope, path, content, output);
        	 	
-       	 	// invoke the compiler - we don't pass arguments here because its a script not a real function
-       	 	// and we don't care about the result because its written to the output stream (out)
-            compiler.call(cx, compileScope, null, new Object[] {});        	
+       	 	// run the scripts - the LESSC script passes the CSS to the compilation, other scripts may print it to the output stream (out)
+            for (Script script : scripts) {
+                script.exec(cx, compileScope);
+            }
         	
             if (logger.isDebugEnabled()) {
                 logger.debug("Finished compilation of LESS source in %,d ms.", System.currentTimeMillis() - start );
             }
             
+            if (output != null) {
+                return null;
+            }
+            if (compilation.getResult() != null) {
+                return compilation.getResult();
+            }
             return this.encoding != null && !this.encoding.equals("") ? out.toString(encoding) : out.toString();
         }
+        catch (Compilation.Aborted e) {
+            throw e.toException(path);
+        }
         catch (Exception e) {
-            if (e instanceof JavaScriptException) {
-                Scriptable value = (Scriptable)((JavaScriptException)e).getValue();
-                if (value != null ) {
-                    StringBuilder message = new StringBuilder();
-                    if( ScriptableObject.hasProperty(value, "filename") ) {
-                        message.append( ScriptableObject.getProperty(value, "filename").toString() );
-                    }
+            throw toLessException(e);
+        }finally{
+        	// reset our ouput stream so we don't copy data on the next invocation
+        	out.reset();
+        	
+        	// we're done with this invocation
+        	Context.exit();
+        }
+    }
+    
+    private String compileShared(String path, String content, Compilation compilation, CssOutput cssOutput) throws LessException {
+        long start = System.currentTimeMillis();
+        
+        try {
+            Context cx = SharedScope.enterContext();
+            
+            // every compilation gets its own child scope and output, so no locking is needed
+            StringBuilder output = new StringBuilder();
+            ScriptableObject compileScope = shared.newCompileScope(cx, output);
+            
+            defineArguments(cx, compileScope, path, content, cssOutput);
+            
+            shared.compile(cx, compileScope);
+            
+            if (logger.isDebugEnabled()) {
+                logger.debug("Finished compilation of LESS source in %,d ms.", System.currentTimeMillis() - start );
+            }
+            
+            if (cssOutput != null) {
+                return null;
+            }
+            return compilation.getResult() != null ? compilation.getResult() : output.toString();
+        }
+        catch (Compilation.Aborted e) {
+            throw e.toException(path);
+        }
+        catch (Exception e) {
+            throw toLessException(e);
+        } finally {
+            Context.exit();
+        }
+    }
+    
+    private void defineArguments(Context cx, ScriptableObject compileScope, String path, String content, CssOutput output) {
+        // Copy the default options
+        List<String> options = new ArrayList<String>(this.options);
+        // Set up the arguments for <input>
+        options.add(path);
+        
+        // Add compress if the value is set for backward compatibility
+        if (this.compress != null && this.compress.booleanValue()) {
+            options.add("-x");
+        }
+        
+        Scriptable argsObj = cx.newArray(compileScope, options.toArray(new Object[options.size()]));
+        compileScope.defineProperty("arguments", argsObj, ScriptableObject.DONTENUM);
+        
+        // the LESSC script reads the input from lessInput instead of the file at path if it is defined
+        if (content != null) {
+            compileScope.defineProperty("lessInput", content, ScriptableObject.DONTENUM);
+        }
+        
+        // and writes the CSS to lessOutput instead of printing it if that is defined
+        if (output != null) {
+            ScriptRuntime.setFunctionProtoAndParent(output, compileScope);
+            compileScope.defineProperty("lessOutput", output, ScriptableObject.DONTENUM);
+        }
+    }
+    
+    private LessException toLessException(Exception e) {
+        if (e instanceof JavaScriptException) {
+            Scriptable value = (Scriptable)((JavaScriptException)e).getValue();
+            if (value != null ) {
+                StringBuilder message = new StringBuilder();
+                if( ScriptableObject.hasProperty(value, "filename") ) {
+                    message.append( ScriptableObject.getProperty(value, "filename").toString() );
+                }
 
-                    if( ScriptableObject.hasProperty(value, "line") ) {
-                        message.append( "@(" );
-                        message.append( ScriptableObject.getProperty(value, "line").toString() );
-                        message.append( "," );
-                        message.append( ScriptableObject.getProperty(value, "column").toString() );
-                        message.append( ")" );
-                    }
+                if( ScriptableObject.hasProperty(value, "line") ) {
+                    message.append( "@(" );
+                    message.append( ScriptableObject.getProperty(value, "line").toString() );
+                    message.append( "," );
+                    message.append( ScriptableObject.getProperty(value, "column").toString() );
+                    message.append( ")" );
+                }
 
-                    if( ScriptableObject.hasProperty(value, "message") ) {
-                        if( message.length() > 0 ) message.append(": ");
-                        message.append( ScriptableObject.getProperty(value, "message").toString() );
-                    }
+                if( ScriptableObject.hasProperty(value, "message") ) {
+                    if( message.length() > 0 ) message.append(": ");
+                    message.append( ScriptableObject.getProperty(value, "message").toString() );
+                }
 
-                    if( ScriptableObject.hasProperty(value, "extract") ) {
-                        List<String> lines = (List<String>) ScriptableObject.getProperty(value, "extract");
-                        for( String line : lines ) {
-                            if( line != null ) {
-                                message.append("\n");
-                                message.append( line );
-                            }
+                if( ScriptableObject.hasProperty(value, "extract") ) {
+                    List<String> lines = (List<String>) ScriptableObject.getProperty(value, "extract");
+                    for( String line : lines ) {
+                        if( line != null ) {
+                            message.append("\n");
+                            message.append( line );
                         }
                     }
-
-                    throw new LessException(message.toString(), e);
                 }
+
+                return new LessException(message.toString(), e);
             }
-            throw new LessException(e);
-        }finally{
-        	// reset our ouput stream so we don't copy data on the next invocation
-        	out.reset();
-        	
-        	// we're done with this invocation
-        	Context.exit();
         }
+        return new LessException(e);
     }
     
     /**
@@ -444,6 +952,19 @@ public class LessCompiler {
         return compile(input, input.getName());
     }
     
+    /**
+     * Compiles the LESS input <code>File</code> to CSS, adding the warnings of the compilation to
+     * <code>warnings</code> instead of logging them.
+     * 
+     * @param input The LESS input <code>File</code> to compile.
+     * @param warnings The <code>List</code> to add the warnings to.
+     * @return The CSS.
+     * @throws LessException any error encountered by the compiler
+     */
+    public String compile(File input, List<String> warnings) throws LessException {
+        return compileSource(input.getAbsolutePath(), null, new FileResource(input), null, null, warnings);
+    }
+    
     /**
      * Compiles the LESS input <code>File</code> to CSS and writes it to the specified output <code>File</code>.
      * 
@@ -465,13 +986,63 @@ public class LessCompiler {
      */
     public void compile(File input, File output, boolean force) throws IOException, LessException {
         if (force || !output.exists() || output.lastModified() < input.lastModified()) {
-            String data = compile(input);
-            FileUtils.writeStringToFile(output, data, encoding);
+            compileTo(input.getAbsolutePath(), null, new FileResource(input), null, output);
         }
-    }    
+    }
+    
+    /**
+     * Compiles the LESS input <code>File</code> to CSS and writes it to the <code>Writer</code> as it is generated.
+     * The writer is flushed, but not closed. If the compilation fails, part of the CSS may have been written.
+     * 
+     * @param input The LESS input <code>File</code> to compile.
+     * @param output The <code>Writer</code> to write the CSS to.
+     * @throws IOException If the LESS file cannot be read or the CSS cannot be written.
+     */
+    public void compile(File input, Writer output) throws IOException, LessException {
+        compileTo(input.getAbsolutePath(), null, new FileResource(input), null, output);
+    }
+    
+    /**
+     * Compiles the LESS input <code>File</code> to CSS and writes it to the <code>OutputStream</code> as it is
+     * generated, in the encoding of the compiler. The stream is flushed, but not closed. If the compilation fails,
+     * part of the CSS may have been written.
+     * 
+     * @param input The LESS input <code>File</code> to compile.
+     * @param output The <code>OutputStream</code> to write the CSS to.
+     * @throws IOException If the LESS file cannot be read or the CSS cannot be written.
+     */
+    public void compile(File input, OutputStream output) throws IOException, LessException {
+        compile(input, new OutputStreamWriter(output, getCharset()));
+    }
+    
+    /**
+     * Compiles the LESS input <code>File</code> to CSS and writes it to the channel as it is generated, in the
+     * encoding of the compiler. The channel is not closed. If the compilation fails, part of the CSS may have
+     * been written.
+     * 
+     * @param input The LESS input <code>File</code> to compile.
+     * @param output The <code>WritableByteChannel</code> to write the CSS to.
+     * @throws IOException If the LESS file cannot be read or the CSS cannot be written.
+     */
+    public void compile(File input, WritableByteChannel output) throws IOException, LessException {
+        compile(input, Channels.newWriter(output, getCharset().newEncoder(), -1));
+    }
     
     public String compile(LessSource input) throws LessException {
-        return compile(input.getNormalizedContent(), input.getName());
+        return compileSource(input, null);
+    }
+    
+    /**
+     * Compiles the input <code>LessSource</code> to CSS, adding the warnings of the compilation to
+     * <code>warnings</code> instead of logging them. CSS that comes from the cache has no warnings.
+     * 
+     * @param input The input <code>LessSource</code> to compile.
+     * @param warnings The <code>List</code> to add the warnings to.
+     * @return The CSS.
+     * @throws LessException any error encountered by the compiler
+     */
+    public String compile(LessSource input, List<String> warnings) throws LessException {
+        return compileSource(input, warnings);
     }
     
     /**
@@ -495,8 +1066,119 @@ public class LessCompiler {
      */
     public void compile(LessSource input, File output, boolean force) throws IOException, LessException {
         if (force || !output.exists() || output.lastModified() < input.getLastModifiedIncludingImports()) {
-            String data = compile(input);
-            FileUtils.writeStringToFile(output, data, encoding);
+            compileTo(input.getName(), input.getContent(), input.getResource(), input, output);
+        }
+    }
+    
+    /**
+     * Compiles the input <code>LessSource</code> to CSS and writes it to the <code>Writer</code> as it is generated.
+     * The writer is flushed, but not closed. If the compilation fails, part of the CSS may have been written.
+     * 
+     * @param input The input <code>LessSource</code> to compile.
+     * @param output The <code>Writer</code> to write the CSS to.
+     * @throws IOException If the CSS cannot be written.
+     */
+    public void compile(LessSource input, Writer output) throws IOException, LessException {
+        compileTo(input.getName(), input.getContent(), input.getResource(), input, output);
+    }
+    
+    /**
+     * Compiles the input <code>LessSource</code> to CSS and writes it to the <code>OutputStream</code> as it is
+     * generated, in the encoding of the compiler. The stream is flushed, but not closed. If the compilation fails,
+     * part of the CSS may have been written.
+     * 
+     * @param input The input <code>LessSource</code> to compile.
+     * @param output The <code>OutputStream</code> to write the CSS to.
+     * @throws IOException If the CSS cannot be written.
+     */
+    public void compile(LessSource input, OutputStream output) throws IOException, LessException {
+        compile(input, new OutputStreamWriter(output, getCharset()));
+    }
+    
+    /**
+     * Compiles the input <code>LessSource</code> to CSS and writes it to the channel as it is generated, in the
+     * encoding of the compiler. The channel is not closed. If the compilation fails, part of the CSS may have
+     * been written.
+     * 
+     * @param input The input <code>LessSource</code> to compile.
+     * @param output The <code>WritableByteChannel</code> to write the CSS to.
+     * @throws IOException If the CSS cannot be written.
+     */
+    public void compile(LessSource input, WritableByteChannel output) throws IOException, LessException {
+        compile(input, Channels.newWriter(output, getCharset().newEncoder(), -1));
+    }
+    
+    /**
+     * Compiles the LESS source into a temporary file next to <code>output</code>, which replaces <code>output</code>
+     * once the compilation succeeded. A failed compilation leaves no partial CSS behind.
+     */
+    private void compileTo(String path, String content, Resource resource, LessSource source, File output) throws IOException, LessException {
+        File directory = output.getAbsoluteFile().getParentFile();
+        FileUtils.forceMkdir(directory);
+        File temp = File.createTempFile("." + output.getName() + ".", ".tmp", directory);
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(temp), getCharset());
+            try {
+                compileTo(path, content, resource, source, writer);
+            } finally {
+                writer.close();
+            }
+            if (!temp.renameTo(output) && !(output.delete() && temp.renameTo(output))) {
+                throw new IOException("Failed to write " + output);
+            }
+        } finally {
+            temp.delete();
         }
-    }    
+    }
+    
+    private Charset getCharset() {
+        return encoding != null && !encoding.equals("") ? Charset.forName(encoding) : Charset.defaultCharset();
+    }
+    
+    /**
+     * A running compilation that other compilations of the same input wait for.
+     */
+    private static class Flight {
+        private final CountDownLatch landed = new CountDownLatch(1);
+        private String css;
+        private List<String> warnings;
+        private LessException failure;
+        
+        /**
+         * Passes the result to the waiting compilations. A compilation that ended without CSS or a
+         * <code>LessException</code> failed with a runtime exception, the waiting compilations fail as well.
+         */
+        void land(String css, List<String> warnings, LessException failure) {
+            this.css = css;
+            this.warnings = warnings;
+            this.failure = css == null && failure == null ? new LessException("The compilation that this compilation waited for failed.", null) : failure;
+            landed.countDown();
+        }
+        
+        /**
+         * Waits for the result, at most until the timeout of the waiting compilation, which started at
+         * <code>start</code>, has passed.
+         */
+        String await(String path, List<String> warnings, long start, long timeout) throws LessException {
+            try {
+                if (timeout == 0) {
+                    landed.await();
+                } else if (!landed.await(start + timeout * 1000000 - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    throw new CompilationAbortedException(CompilationAbortedException.Reason.TIMEOUT,
+                            "Compilation of " + path + " took longer than " + timeout + " ms while waiting for the same compilation.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompilationAbortedException(CompilationAbortedException.Reason.CANCELLED,
+                        "Compilation of " + path + " was cancelled while waiting for the same compilation.");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (warnings != null) {
+                warnings.addAll(this.warnings);
+            }
+            return css;
+        }
+    }
 }
@@ -0,0 +1,461 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.lesscss.logging.LessLogger;
+import org.lesscss.logging.LessLoggerFactory;
+
+/**
+ * A pool of initialized <code>LessCompiler</code> instances.
+ * <p>
+ * A single <code>LessCompiler</code> compiles one LESS source at a time. The pool keeps several
+ * compilers, each with its own Rhino scope, and hands them out to concurrent callers so that
+ * compilation throughput scales with the number of available cores.
+ * </p>
+ * <p>
+ * The pool starts with <code>minSize</code> compilers and grows up to <code>maxSize</code> when callers
+ * have been waiting longer than the growth threshold for an idle compiler. Compilers that have been idle
+ * longer than the idle timeout are evicted again, but the pool never shrinks below <code>minSize</code>.
+ * </p>
+ * <h4>Basic code example:</h4>
+ * <pre>
+ * LessCompiler template = new LessCompiler(Arrays.asList("--strict-math=on"));
+ * LessCompilerPool pool = new LessCompilerPool(template);
+ * String css = pool.compile(new File("main.less"));
+ * </pre>
+ *
+ * @see LessCompiler
+ */
+public class LessCompilerPool {
+
+    private static final LessLogger logger = LessLoggerFactory.getLogger(LessCompilerPool.class);
+
+    private final LessCompiler template;
+
+    private int minSize = 1;
+    private int maxSize = Runtime.getRuntime().availableProcessors();
+    private long idleTimeout = 60 * 1000;
+    private long growthThreshold = 50;
+
+    private final Object lock = new Object();
+    private final LinkedList<IdleCompiler> idle = new LinkedList<IdleCompiler>();
+    private int size = 0;
+    private boolean closed = false;
+    private Timer evictionTimer;
+
+    /**
+     * Constructs a new <code>LessCompilerPool</code> of default configured compilers.
+     */
+    public LessCompilerPool() {
+        this(new LessCompiler());
+    }
+
+    /**
+     * Constructs a new <code>LessCompilerPool</code> of compilers using the given compiler options.
+     *
+     * @param options The compiler options.
+     */
+    public LessCompilerPool(List<String> options) {
+        this(new LessCompiler(options));
+    }
+
+    /**
+     * Constructs a new <code>LessCompilerPool</code> of compilers configured like the template.
+     * <p>
+     * The configuration of the template is copied, later changes to the template do not affect the pool.
+     * </p>
+     *
+     * @param template The <code>LessCompiler</code> whose configuration is used for the pooled compilers.
+     */
+    public LessCompilerPool(LessCompiler template) {
+        if (template == null) {
+            throw new IllegalArgumentException("Template must not be null.");
+        }
+        this.template = template.copy();
+    }
+
+    /**
+     * Returns the minimum number of compilers kept by the pool.
+     *
+     * @return The minimum number of compilers kept by the pool.
+     */
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * Sets the minimum number of compilers kept by the pool. Defaults to 1.
+     *
+     * @param minSize The minimum number of compilers kept by the pool.
+     */
+    public void setMinSize(int minSize) {
+        if (minSize < 0) {
+            throw new IllegalArgumentException("Minimum size must not be negative.");
+        }
+        synchronized (lock) {
+            this.minSize = minSize;
+        }
+    }
+
+    /**
+     * Returns the maximum number of compilers kept by the pool.
+     *
+     * @return The maximum number of compilers kept by the pool.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of compilers kept by the pool. Defaults to the number of available processors.
+     *
+     * @param maxSize The maximum number of compilers kept by the pool.
+     */
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be at least 1.");
+        }
+        synchronized (lock) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    /**
+     * Returns the time in milliseconds after which an idle compiler is evicted.
+     *
+     * @return The time in milliseconds after which an idle compiler is evicted.
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds after which an idle compiler is evicted. Defaults to one minute.
+     * A value of <code>0</code> disables eviction.
+     *
+     * @param idleTimeout The time in milliseconds after which an idle compiler is evicted.
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        if (idleTimeout < 0) {
+            throw new IllegalArgumentException("Idle timeout must not be negative.");
+        }
+        synchronized (lock) {
+            this.idleTimeout = idleTimeout;
+        }
+    }
+
+    /**
+     * Returns the time in milliseconds a caller waits for an idle compiler before the pool grows.
+     *
+     * @return The time in milliseconds a caller waits for an idle compiler before the pool grows.
+     */
+    public long getGrowthThreshold() {
+        return growthThreshold;
+    }
+
+    /**
+     * Sets the time in milliseconds a caller waits for an idle compiler before the pool grows. Defaults to 50 ms.
+     * A value of <code>0</code> makes the pool grow as soon as no idle compiler is available.
+     *
+     * @param growthThreshold The time in milliseconds a caller waits for an idle compiler before the pool grows.
+     */
+    public void setGrowthThreshold(long growthThreshold) {
+        if (growthThreshold < 0) {
+            throw new IllegalArgumentException("Growth threshold must not be negative.");
+        }
+        synchronized (lock) {
+            this.growthThreshold = growthThreshold;
+        }
+    }
+
+    /**
+     * Returns the number of compilers currently owned by the pool, both idle and in use.
+     *
+     * @return The number of compilers currently owned by the pool.
+     */
+    public int getSize() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    /**
+     * Returns the number of idle compilers.
+     *
+     * @return The number of idle compilers.
+     */
+    public int getIdleCount() {
+        synchronized (lock) {
+            return idle.size();
+        }
+    }
+
+    /**
+     * Compiles the LESS input <code>String</code> to CSS.
+     *
+     * @param input The LESS input <code>String</code> to compile.
+     * @return The CSS.
+     * @throws LessException any error encountered by the compiler
+     */
+    public String compile(String input) throws LessException {
+        LessCompiler compiler = acquire();
+        try {
+            return compiler.compile(input);
+        } finally {
+            release(compiler);
+        }
+    }
+
+    /**
+     * Compiles the LESS input <code>String</code> to CSS, but specifies the source name <code>String</code>.
+     *
+     * @param input The LESS input <code>String</code> to compile.
+     * @param name The source's name <code>String</code> to provide better error messages.
+     * @return The CSS.
+     * @throws LessException any error encountered by the compiler
+     */
+    public String compile(String input, String name) throws LessException {
+        LessCompiler compiler = acquire();
+        try {
+            return compiler.compile(input, name);
+        } finally {
+            release(compiler);
+        }
+    }
+
+    /**
+     * Compiles the LESS input <code>File</code> to CSS.
+     *
+     * @param input The LESS input <code>File</code> to compile.
+     * @return The CSS.
+     * @throws IOException If the LESS file cannot be read.
+     * @throws LessException any error encountered by the compiler
+     */
+    public String compile(File input) throws IOException, LessException {
+        LessCompiler compiler = acquire();
+        try {
+            return compiler.compile(input);
+        } finally {
+            release(compiler);
+        }
+    }
+
+    /**
+     * Compiles the LESS input <code>File</code> to CSS and writes it to the specified output <code>File</code>.
+     *
+     * @param input The LESS input <code>File</code> to compile.
+     * @param output The output <code>File</code> to write the CSS to.
+     * @throws IOException If the LESS file cannot be read or the output file cannot be written.
+     * @throws LessException any error encountered by the compiler
+     */
+    public void compile(File input, File output) throws IOException, LessException {
+        compile(input, output, true);
+    }
+
+    /**
+     * Compiles the LESS input <code>File</code> to CSS and writes it to the specified output <code>File</code>.
+     *
+     * @param input The LESS input <code>File</code> to compile.
+     * @param output The output <code>File</code> to write the CSS to.
+     * @param force 'false' to only compile the LESS input file in case the LESS source has been modified (including imports) or the output file does not exists.
+     * @throws IOException If the LESS file cannot be read or the output file cannot be written.
+     * @throws LessException any error encountered by the compiler
+     */
+    public void compile(File input, File output, boolean force) throws IOException, LessException {
+        LessCompiler compiler = acquire();
+        try {
+            compiler.compile(input, output, force);
+        } finally {
+            release(compiler);
+        }
+    }
+
+    /**
+     * Compiles the input <code>LessSource</code> to CSS.
+     *
+     * @param input The input <code>LessSource</code> to compile.
+     * @return The CSS.
+     * @throws LessException any error encountered by the compiler
+     */
+    public String compile(LessSource input) throws LessException {
+        LessCompiler compiler = acquire();
+        try {
+            return compiler.compile(input);
+        } finally {
+            release(compiler);
+        }
+    }
+
+    /**
+     * Compiles the input <code>LessSource</code> to CSS and writes it to the specified output <code>File</code>.
+     *
+     * @param input The input <code>LessSource</code> to compile.
+     * @param output The output <code>File</code> to write the CSS to.
+     * @throws IOException If the LESS file cannot be read or the output file cannot be written.
+     * @throws LessException any error encountered by the compiler
+     */
+    public void compile(LessSource input, File output) throws IOException, LessException {
+        compile(input, output, true);
+    }
+
+    /**
+     * Compiles the input <code>LessSource</code> to CSS and writes it to the specified output <code>File</code>.
+     *
+     * @param input The input <code>LessSource</code> to compile.
+     * @param output The output <code>File</code> to write the CSS to.
+     * @param force 'false' to only compile the input <code>LessSource</code> in case the LESS source has been modified (including imports) or the output file does not exists.
+     * @throws IOException If the LESS file cannot be read or the output file cannot be written.
+     * @throws LessException any error encountered by the compiler
+     */
+    public void compile(LessSource input, File output, boolean force) throws IOException, LessException {
+        LessCompiler compiler = acquire();
+        try {
+            compiler.compile(input, output, force);
+        } finally {
+            release(compiler);
+        }
+    }
+
+    /**
+     * Closes the pool. Idle compilers are discarded, compilers in use are discarded when they are returned.
+     */
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            size -= idle.size();
+            idle.clear();
+            if (evictionTimer != null) {
+                evictionTimer.cancel();
+                evictionTimer = null;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Takes a compiler from the pool, creating a new one if the pool is below its minimum size or if the
+     * caller has been waiting longer than the growth threshold and the pool is below its maximum size.
+     */
+    private LessCompiler acquire() throws LessException {
+        long start = System.currentTimeMillis();
+        synchronized (lock) {
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("This pool has been closed.");
+                }
+                if (!idle.isEmpty()) {
+                    return idle.removeFirst().compiler;
+                }
+                long waited = System.currentTimeMillis() - start;
+                if (size < minSize || (size < maxSize && waited >= growthThreshold)) {
+                    size++;
+                    break;
+                }
+                try {
+                    lock.wait(size < maxSize ? growthThreshold - waited : 0);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CompilationAbortedException(CompilationAbortedException.Reason.CANCELLED,
+                            "Interrupted while waiting for a LESS compiler.");
+                }
+            }
+            startEvictionTimer();
+        }
+
+        // initialize outside of the lock, other callers can still take returned compilers meanwhile
+        try {
+            LessCompiler compiler = template.copy();
+            compiler.init();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Added LESS compiler to pool after waiting %,d ms, pool size is %d.", System.currentTimeMillis() - start, getSize());
+            }
+            return compiler;
+        } catch (RuntimeException e) {
+            synchronized (lock) {
+                size--;
+                lock.notify();
+            }
+            throw e;
+        }
+    }
+
+    private void release(LessCompiler compiler) {
+        synchronized (lock) {
+            if (closed) {
+                size--;
+                return;
+            }
+            idle.addFirst(new IdleCompiler(compiler, System.currentTimeMillis()));
+            lock.notify();
+        }
+    }
+
+    private void startEvictionTimer() {
+        if (evictionTimer == null && idleTimeout > 0) {
+            evictionTimer = new Timer("LessCompilerPool-evictor", true);
+            long period = Math.max(idleTimeout / 2, 1);
+            evictionTimer.schedule(new TimerTask() {
+                public void run() {
+                    evictIdle();
+                }
+            }, period, period);
+        }
+    }
+
+    /**
+     * Evicts compilers that have been idle longer than the idle timeout, the least recently used first.
+     */
+    private void evictIdle() {
+        synchronized (lock) {
+            if (idleTimeout == 0) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            int evicted = 0;
+            // compilers are returned at the head, so the tail holds the longest idle ones
+            ListIterator<IdleCompiler> it = idle.listIterator(idle.size());
+            while (it.hasPrevious() && size > minSize) {
+                IdleCompiler candidate = it.previous();
+                if (now - candidate.since < idleTimeout) {
+                    break;
+                }
+                it.remove();
+                size--;
+                evicted++;
+            }
+            if (evicted > 0 && logger.isDebugEnabled()) {
+                logger.debug("Evicted %d idle LESS compilers, pool size is %d.", evicted, size);
+            }
+        }
+    }
+
+    private static class IdleCompiler {
+        private final LessCompiler compiler;
+        private final long since;
+
+        private IdleCompiler(LessCompiler compiler, long since) {
+            this.compiler = compiler;
+            this.since = since;
+        }
+    }
+}
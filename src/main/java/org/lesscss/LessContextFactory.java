@@ -0,0 +1,49 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+
+/**
+ * Creates the <code>Context</code>s that the LESS JavaScript runs in, which let the running {@link Compilation}
+ * check its budget every {@value #INSTRUCTION_THRESHOLD} instructions.
+ * <p>
+ * Scripts only count instructions if they were compiled in such a context, or precompiled to count them, see
+ * <code>src/build/jsc.js</code>.
+ * </p>
+ */
+class LessContextFactory extends ContextFactory {
+
+    static final int INSTRUCTION_THRESHOLD = 10000;
+
+    /** The factory of compilers that don't share their scope, see {@link SharedScope} for the others. */
+    static final LessContextFactory DEFAULT = new LessContextFactory();
+
+    @Override
+    protected Context makeContext() {
+        Context cx = super.makeContext();
+        cx.setInstructionObserverThreshold(INSTRUCTION_THRESHOLD);
+        return cx;
+    }
+
+    @Override
+    protected void observeInstructionCount(Context cx, int instructionCount) {
+        Compilation compilation = Compilation.running();
+        if (compilation != null) {
+            compilation.observeInstructions(instructionCount);
+        }
+    }
+}
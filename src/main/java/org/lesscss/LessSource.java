@@ -17,16 +17,22 @@ package org.lesscss;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import static java.util.regex.Pattern.MULTILINE;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.input.BOMInputStream;
 import org.lesscss.logging.LessLogger;
 import org.lesscss.logging.LessLoggerFactory;
 
@@ -39,15 +45,17 @@ public class LessSource {
 
     private static LessLogger logger = LessLoggerFactory.getLogger( LessSource.class );
 
-    /**
-     * The <code>Pattern</code> used to match imported files.
-     */
-    private static final Pattern IMPORT_PATTERN = Pattern.compile("^(?!\\s*//\\s*).*(@import\\s+(url\\(|\\((less|css)\\))?\\s*(\"|')(.+)\\s*(\"|')(\\))?(.*);).*$", MULTILINE);
-
     private Resource resource;
+    /** Identifies the source to import every source only once, see {@link #identity(Resource)}. */
+    private String identity;
     private String content;
-    private String normalizedContent;
     private Map<String, LessSource> imports = new LinkedHashMap<String, LessSource>();
+    /** The import statements replaced in the normalized content, in the order they appear in the content. */
+    private List<Inclusion> inclusions = new ArrayList<Inclusion>();
+    /** Whether an import was left out because it imports this source or the sources importing it. */
+    private boolean cyclic;
+    /** The last modified time of the resource before its content was read. */
+    private long contentLastModified;
 
     /**
      * Constructs a new <code>LessSource</code>.
@@ -78,6 +86,22 @@ public class LessSource {
      * @throws IOException If the LESS resource cannot be read.
      */
     public LessSource(Resource resource, Charset charset) throws IOException {
+        this(resource, charset, null);
+    }
+
+    /**
+     * Constructs a new <code>LessSource</code> whose imports are created by the factory, or read in the default
+     * charset of the platform if the factory is <code>null</code>.
+     */
+    LessSource(Resource resource, Charset charset, LessSourceFactory factory) throws IOException {
+        this(resource, charset, factory, Collections.<String>emptyList());
+    }
+
+    /**
+     * Constructs a new <code>LessSource</code> imported by the sources with the given identities, which it must not
+     * import again.
+     */
+    LessSource(Resource resource, Charset charset, LessSourceFactory factory, List<String> importers) throws IOException {
         if (resource == null) {
             throw new IllegalArgumentException("Resource must not be null.");
         }
@@ -85,8 +109,17 @@ public class LessSource {
             throw new IOException("Resource " + resource + " not found.");
         }
         this.resource = resource;
-        this.content = this.normalizedContent = loadResource(resource, charset);
-        resolveImports();
+        this.identity = identity(resource);
+        this.contentLastModified = resource.lastModified();
+        this.content = ContentCache.read(resource, charset);
+        List<String> chain = new ArrayList<String>(importers);
+        chain.add(identity);
+        resolveImports(factory, chain);
+        if (factory != null && !factory.isContentRetained()) {
+            // only the imports are needed to check if the source has been modified
+            this.content = null;
+            this.inclusions = Collections.emptyList();
+        }
     }
 
     /**
@@ -101,22 +134,6 @@ public class LessSource {
         this( new FileResource(input) );
     }
 
-    private String loadResource(Resource resource, Charset charset) throws IOException {
-        BOMInputStream inputStream = new BOMInputStream( resource.getInputStream() );
-        try {
-            if( inputStream.hasBOM() ) {
-                logger.debug("BOM found %s", inputStream.getBOMCharsetName());
-                return IOUtils.toString(inputStream, inputStream.getBOMCharsetName());
-            } else {
-                logger.debug("Using charset " + charset.name());
-                return IOUtils.toString(inputStream, charset.name());
-            }
-        }
-        finally {
-            inputStream.close();
-        }
-    }
-
     /**
      * Returns the absolute pathname of the LESS source.
      *
@@ -130,11 +147,26 @@ public class LessSource {
      * Returns the content of the LESS source.
      *
      * @return The content of the LESS source.
+     * @throws IllegalStateException If the content was released, see {@link LessSourceFactory#setContentRetained(boolean)}.
      */
     public String getContent() {
+        checkContent();
         return content;
     }
 
+    /**
+     * Tests if the content is kept, or has been released after the imports were resolved.
+     */
+    boolean isContentRetained() {
+        return content != null;
+    }
+
+    private void checkContent() {
+        if (content == null) {
+            throw new IllegalStateException("The content of " + resource + " has been released.");
+        }
+    }
+
     /**
      * Returns the normalized content of the LESS source.
      * <p>
@@ -143,10 +175,66 @@ public class LessSource {
      * content.
      * </p>
      *
+     * <p>
+     * Only the content of each file is kept, the normalized content is built from the content of the LESS source
+     * and its imports every time it is requested.
+     * </p>
+     *
      * @return The normalized content of the LESS source.
+     * @throws IllegalStateException If the content was released, see {@link LessSourceFactory#setContentRetained(boolean)}.
      */
     public String getNormalizedContent() {
-        return normalizedContent;
+        checkContent();
+        if (inclusions.isEmpty()) {
+            return content;
+        }
+        StringBuilder builder = new StringBuilder(flatten(null, new HashSet<String>()));
+        flatten(builder, new HashSet<String>());
+        return builder.toString();
+    }
+
+    /**
+     * Appends the normalized content to the builder, or only counts its length if the builder is <code>null</code>.
+     * <p>
+     * Like the LESS compiler, every source is imported only once, where it is first imported, no matter how it is
+     * referred to. The content of the imports is copied directly from their sources, so the content of nested
+     * imports is copied only once.
+     * </p>
+     *
+     * @return The length of the normalized content.
+     */
+    private int flatten(StringBuilder builder, Set<String> included) {
+        checkContent();
+        included.add(identity);
+        int length = 0;
+        int position = 0;
+        for (Inclusion inclusion : inclusions) {
+            length += inclusion.start - position;
+            if (builder != null) {
+                builder.append(content, position, inclusion.start);
+            }
+            if (inclusion.source != null && !included.contains(inclusion.source.identity)) {
+                if (inclusion.media != null) {
+                    length += inclusion.media.length() + 8;
+                    if (builder != null) {
+                        builder.append("@media").append(inclusion.media).append("{\n");
+                    }
+                }
+                length += inclusion.source.flatten(builder, included);
+                if (inclusion.media != null) {
+                    length += 2;
+                    if (builder != null) {
+                        builder.append("}\n");
+                    }
+                }
+            }
+            position = inclusion.end;
+        }
+        length += content.length() - position;
+        if (builder != null) {
+            builder.append(content, position, content.length());
+        }
+        return length;
     }
 
     /**
@@ -178,7 +266,7 @@ public class LessSource {
     /**
      * Returns the LESS sources imported by this LESS source.
      * <p>
-     * The returned imports are represented by a
+     * The returned imports are represented by an unmodifiable
      * <code>Map&lt;String, LessSource&gt;</code> which contains the filename and the
      * <code>LessSource</code>.
      * </p>
@@ -186,32 +274,122 @@ public class LessSource {
      * @return The LESS sources imported by this LESS source.
      */
     public Map<String, LessSource> getImports() {
-        return imports;
+        return Collections.unmodifiableMap(imports);
     }
 
-    private void resolveImports() throws IOException {
-        Matcher importMatcher = IMPORT_PATTERN.matcher(normalizedContent);
-        while (importMatcher.find()) {
-            String importedResource = importMatcher.group(5);
-            importedResource = importedResource.matches(".*\\.(le?|c)ss$") ? importedResource : importedResource + ".less";
-            String importType = importMatcher.group(3)==null ? importedResource.substring(importedResource.lastIndexOf(".") + 1) : importMatcher.group(3);
-            if (importType.equals("less")) {
+    private void resolveImports(LessSourceFactory factory, List<String> chain) throws IOException {
+        List<ImportScanner.Import> statements = ImportScanner.scan(content);
+        Map<String, FutureTask<LessSource>> loaded = loadImportsConcurrently(statements, factory, chain);
+        for (ImportScanner.Import statement : statements) {
+            String importedResource = getLessImport(statement);
+            if (importedResource != null) {
                 logger.debug("Importing %s", importedResource);
 
                 if( !imports.containsKey(importedResource) ) {
-                    LessSource importedLessSource = new LessSource(getImportedResource(importedResource));
+                    LessSource importedLessSource = loaded != null ? awaitImport(loaded.get(importedResource)) : loadImport(importedResource, factory, chain);
+                    if (importedLessSource == null) {
+                        cyclic = true;
+                        inclusions.add(new Inclusion(statement.start, statement.end, null, null));
+                        continue;
+                    }
+                    cyclic |= importedLessSource.cyclic;
                     imports.put(importedResource, importedLessSource);
-
-                    normalizedContent = includeImportedContent(importedLessSource, importMatcher);
-                    importMatcher = IMPORT_PATTERN.matcher(normalizedContent);
+                    String media = statement.media.length() > 0 ? statement.media : null;
+                    inclusions.add(new Inclusion(statement.start, statement.end, importedLessSource, media));
                 } else {
-                    normalizedContent = normalizedContent.substring(0, importMatcher.start(1)) + normalizedContent.substring(importMatcher.end(1));
-                    importMatcher = IMPORT_PATTERN.matcher(normalizedContent);
+                    inclusions.add(new Inclusion(statement.start, statement.end, null, null));
                 }
             }
         }
     }
 
+    /**
+     * Returns the file name of the LESS file imported by the statement, or <code>null</code> if the statement
+     * imports CSS.
+     */
+    private static String getLessImport(ImportScanner.Import statement) {
+        String importedResource = statement.path;
+        importedResource = importedResource.matches(".*\\.(le?|c)ss$") ? importedResource : importedResource + ".less";
+        String importType = statement.option == null ? importedResource.substring(importedResource.lastIndexOf(".") + 1) : statement.option;
+        return importType.equals("less") ? importedResource : null;
+    }
+
+    /**
+     * Loads an import, or returns <code>null</code> if it is one of the sources in the chain of imports that led to
+     * this source.
+     */
+    private LessSource loadImport(String importedResource, LessSourceFactory factory, List<String> chain) throws IOException {
+        Resource imported = getImportedResource(importedResource);
+        if (chain.contains(identity(imported))) {
+            logger.debug("Skipping circular import of %s in %s", importedResource, getName());
+            return null;
+        }
+        return factory != null ? factory.getSource(imported, chain) : new LessSource(imported, Charset.defaultCharset(), null, chain);
+    }
+
+    /**
+     * Loads the imports concurrently on the executor of the factory, if it has one and there is more than one import.
+     * The imports the executor has not started by the time the current thread is ready are loaded by the current
+     * thread, so an import never waits for a thread of the executor and any executor can be used without deadlocks.
+     */
+    private Map<String, FutureTask<LessSource>> loadImportsConcurrently(List<ImportScanner.Import> statements, final LessSourceFactory factory,
+            final List<String> chain) {
+        Executor executor = factory != null ? factory.getExecutor() : null;
+        if (executor == null) {
+            return null;
+        }
+        Map<String, FutureTask<LessSource>> loaded = new LinkedHashMap<String, FutureTask<LessSource>>();
+        for (ImportScanner.Import statement : statements) {
+            final String importedResource = getLessImport(statement);
+            if (importedResource != null && !loaded.containsKey(importedResource)) {
+                loaded.put(importedResource, new FutureTask<LessSource>(new Callable<LessSource>() {
+                    public LessSource call() throws IOException {
+                        return loadImport(importedResource, factory, chain);
+                    }
+                }));
+            }
+        }
+        if (loaded.size() < 2) {
+            return null;
+        }
+        for (FutureTask<LessSource> task : loaded.values()) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // the rejected imports are loaded by the current thread
+                break;
+            }
+        }
+        for (FutureTask<LessSource> task : loaded.values()) {
+            task.run();
+        }
+        return loaded;
+    }
+
+    /**
+     * Waits for an import to be loaded and throws the exception if loading it failed.
+     */
+    private static LessSource awaitImport(FutureTask<LessSource> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new InterruptedIOException("Interrupted while loading an import").initCause(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (IOException) new IOException(cause.getMessage()).initCause(cause);
+        }
+    }
+
     private Resource getImportedResource(String importedResource) throws IOException {
         try {
             if( importedResource.startsWith("http:") || importedResource.startsWith("https:") ) {
@@ -224,25 +402,60 @@ public class LessSource {
         }
     }
 
-    private String includeImportedContent(LessSource importedLessSource, Matcher importMatcher) {
-        StringBuilder builder = new StringBuilder();
-        builder.append(normalizedContent.substring(0, importMatcher.start(1)));
+    public String getName() {
+        return resource.getName();
+    }
+
+    Resource getResource() {
+        return resource;
+    }
 
-        String mediaQuery = importMatcher.group(8);
-        if( mediaQuery != null && mediaQuery.length() > 0) {
-            builder.append("@media");
-            builder.append( mediaQuery );
-            builder.append("{\n");
-        }
-        builder.append(importedLessSource.getNormalizedContent());
-        if( mediaQuery != null && mediaQuery.length() > 0 ) {
-            builder.append("}\n");
-        }
-        builder.append(normalizedContent.substring(importMatcher.end(1)));
-        return builder.toString();
+    /**
+     * Returns the last modified time of the resource as it was before the content was read. The content is at least
+     * as recent as this.
+     */
+    long getContentLastModified() {
+        return contentLastModified;
     }
 
-    public String getName() {
+    String getIdentity() {
+        return identity;
+    }
+
+    /**
+     * Tests if an import was left out because it was circular. Which imports are left out depends on where the
+     * import chain started, so such sources can't be shared.
+     */
+    boolean isCyclic() {
+        return cyclic;
+    }
+
+    /**
+     * Returns the identity of a resource: the canonical path of a file, or the name of other resources.
+     */
+    static String identity(Resource resource) throws IOException {
+        if (resource instanceof FileResource) {
+            return new File(resource.getName()).getCanonicalPath();
+        }
         return resource.getName();
     }
+
+    /**
+     * An import statement of the content and what replaces it in the normalized content: the normalized content
+     * of the imported source, in a media block if the import has a media query, or nothing for a repeated import.
+     */
+    private static final class Inclusion {
+
+        final int start;
+        final int end;
+        final LessSource source;
+        final String media;
+
+        Inclusion(int start, int end, LessSource source, String media) {
+            this.start = start;
+            this.end = end;
+            this.source = source;
+            this.media = media;
+        }
+    }
 }
@@ -0,0 +1,308 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates {@link LessSource}s and caches them, so sources that import the same files share the
+ * <code>LessSource</code>s of those imports and every file is read only once.
+ * <p>
+ * Sources are cached by the canonical path of their file, or the name of other resources, and validated against
+ * the last modified time of the resource and of all its imports. A source is read again once it or one of its
+ * imports changes; the imports that did not change are still shared. Resources without a last modified time are
+ * never cached. The cache holds a limited number of sources and evicts the least recently used source first.
+ * </p>
+ * <p>
+ * The factory is thread safe. The <code>LessSource</code>s it returns are shared and must not be modified.
+ * </p>
+ * <p>
+ * By default a source reads its imports one after the other. Given an executor, a source reads all its imports
+ * concurrently and then includes them in the order they are imported, which gives the same result and is much
+ * faster for imports over HTTP.
+ * </p>
+ * <h4>Basic code example:</h4>
+ * <pre>
+ * LessSourceFactory factory = new LessSourceFactory();
+ * for (File file : files) {
+ *     lessCompiler.compile(factory.getSource(file), new File(outputDirectory, file.getName() + ".css"));
+ * }
+ * </pre>
+ */
+public class LessSourceFactory {
+
+    private final Charset charset;
+    private final int maxEntries;
+    private volatile Executor executor;
+    private volatile FileStatCache statCache;
+    private volatile boolean contentRetained = true;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final Map<String, Entry> entries;
+
+    /**
+     * Constructs a new <code>LessSourceFactory</code> reading sources in the default charset of the platform and
+     * holding at most 1000 sources.
+     */
+    public LessSourceFactory() {
+        this(Charset.defaultCharset(), 1000);
+    }
+
+    /**
+     * Constructs a new <code>LessSourceFactory</code>.
+     *
+     * @param charset The charset used to read sources and their imports.
+     * @param maxEntries The maximum number of sources held by the cache.
+     */
+    @SuppressWarnings("serial")
+    public LessSourceFactory(Charset charset, final int maxEntries) {
+        if (charset == null) {
+            throw new IllegalArgumentException("Charset must not be null.");
+        }
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Maximum number of entries must be positive.");
+        }
+        this.charset = charset;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the <code>LessSource</code> of a file, reading it only if it is not cached or if it or one of its
+     * imports has been modified.
+     *
+     * @param file The LESS file.
+     * @return The <code>LessSource</code> of the file.
+     * @throws IOException If the file or one of its imports cannot be read.
+     */
+    public LessSource getSource(File file) throws IOException {
+        return getSource(new FileResource(file, statCache));
+    }
+
+    /**
+     * Returns the <code>LessSource</code> of a resource, reading it only if it is not cached or if it or one of its
+     * imports has been modified.
+     *
+     * @param resource The LESS resource.
+     * @return The <code>LessSource</code> of the resource.
+     * @throws IOException If the resource or one of its imports cannot be read.
+     */
+    public LessSource getSource(Resource resource) throws IOException {
+        return getSource(resource, Collections.<String>emptyList());
+    }
+
+    /**
+     * Returns the <code>LessSource</code> of a resource imported by the sources with the given identities.
+     */
+    LessSource getSource(Resource resource, List<String> importers) throws IOException {
+        return getSource(resource, importers, new HashMap<String, LessSource>());
+    }
+
+    /**
+     * Returns the <code>LessSource</code> of a resource imported by the sources with the given identities. The
+     * sources already found current while validating the same root are passed along, so an import shared by several
+     * sources is validated once.
+     */
+    private LessSource getSource(Resource resource, List<String> importers, Map<String, LessSource> validated) throws IOException {
+        String key = LessSource.identity(resource);
+        long lastModified = resource.lastModified();
+        if (lastModified != 0) {
+            Entry entry;
+            synchronized (this) {
+                entry = entries.get(key);
+            }
+            if (entry != null && entry.lastModified == lastModified && entry.source.isContentRetained() == contentRetained
+                    && importsAreCurrent(entry.source, importers, validated)) {
+                hitCount.incrementAndGet();
+                validated.put(key, entry.source);
+                return entry.source;
+            }
+        }
+        missCount.incrementAndGet();
+
+        LessSource source = new LessSource(resource, charset, this, importers);
+
+        if (lastModified != 0 && !source.isCyclic()) {
+            synchronized (this) {
+                entries.put(key, new Entry(lastModified, source));
+            }
+        }
+        return source;
+    }
+
+    /**
+     * Returns the charset used to read sources and their imports.
+     *
+     * @return The charset used to read sources and their imports.
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Returns the executor imports are read on, or <code>null</code> if they are read one after the other.
+     *
+     * @return The executor imports are read on.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor on which a source reads its imports concurrently. Imports that the executor has not started
+     * when the source needs them, or that it rejects, are read by the thread creating the source, so any executor
+     * can be used without the risk of a deadlock. Defaults to <code>null</code>, reading imports one after the other.
+     *
+     * @param executor The executor imports are read on, or <code>null</code>.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the cache of last modified times used for the files given to {@link #getSource(File)} and their
+     * imports, or <code>null</code> if they are checked every time.
+     *
+     * @return The cache of last modified times.
+     */
+    public FileStatCache getStatCache() {
+        return statCache;
+    }
+
+    /**
+     * Sets the cache of last modified times used for the files given to {@link #getSource(File)} and their imports,
+     * so validating a cached source does not touch the file system for every file it imports. Defaults to
+     * <code>null</code>, checking the files every time.
+     *
+     * @param statCache The cache of last modified times, or <code>null</code>.
+     */
+    public void setStatCache(FileStatCache statCache) {
+        this.statCache = statCache;
+    }
+
+    /**
+     * Returns whether the sources keep their content.
+     *
+     * @return <code>true</code> if the sources keep their content.
+     */
+    public boolean isContentRetained() {
+        return contentRetained;
+    }
+
+    /**
+     * Sets whether the sources keep their content. Sources that do not keep their content only know their imports
+     * and can only be used to check when they or their imports were last modified, e.g. to decide whether to compile
+     * a file again. Defaults to <code>true</code>.
+     *
+     * @param contentRetained <code>false</code> to release the content of the sources once their imports are resolved.
+     */
+    public void setContentRetained(boolean contentRetained) {
+        this.contentRetained = contentRetained;
+    }
+
+    /**
+     * Returns the maximum number of sources held by the cache.
+     *
+     * @return The maximum number of sources held by the cache.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Returns the number of sources, including imports, that were found in the cache and were current.
+     *
+     * @return The number of sources that were found in the cache.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of sources, including imports, that were read.
+     *
+     * @return The number of sources that were read.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of sources in the cache.
+     *
+     * @return The number of sources in the cache.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes all sources from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Tests if the imports of a cached source are the sources the factory returns for them now. An import that has
+     * changed is read again, and the source has to be read again to include it. A source with an import that is now
+     * circular, because the import has changed to import the source, has to be read again to leave it out.
+     */
+    private boolean importsAreCurrent(LessSource source, List<String> importers, Map<String, LessSource> validated)
+            throws IOException {
+        List<String> chain = new ArrayList<String>(importers);
+        chain.add(source.getIdentity());
+        for (LessSource imported : source.getImports().values()) {
+            if (chain.contains(imported.getIdentity())) {
+                return false;
+            }
+            LessSource current = validated.get(imported.getIdentity());
+            if (current == null) {
+                current = getSource(imported.getResource(), chain, validated);
+            }
+            if (current != imported) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Entry {
+        private final long lastModified;
+        private final LessSource source;
+
+        private Entry(long lastModified, LessSource source) {
+            this.lastModified = lastModified;
+            this.source = source;
+        }
+    }
+}
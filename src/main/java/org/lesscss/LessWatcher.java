@@ -0,0 +1,363 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.monitor.FileAlterationListenerAdaptor;
+import org.apache.commons.io.monitor.FileAlterationMonitor;
+import org.apache.commons.io.monitor.FileAlterationObserver;
+import org.lesscss.logging.LessLogger;
+import org.lesscss.logging.LessLoggerFactory;
+
+/**
+ * Watches a directory of LESS sources and recompiles the stylesheets affected by a change.
+ * <p>
+ * The watcher keeps an index of which files import which, built from the imports of the {@link LessSource}
+ * of every <code>.less</code> file in the directory. Files that no other file in the directory imports are the
+ * root stylesheets and are compiled to CSS. When a file changes, only the root stylesheets that import it,
+ * directly or through other imports, are compiled again. Changes that arrive close together are handled
+ * together, so saving many files at once compiles every affected stylesheet only once.
+ * </p>
+ * <p>
+ * The directory is polled for changes, every 100 ms by default.
+ * </p>
+ * <h4>Basic code example:</h4>
+ * <pre>
+ * LessWatcher watcher = new LessWatcher(new LessCompiler(), new File("src/less"), new File("target/css"));
+ * watcher.start();
+ * ...
+ * watcher.stop();
+ * </pre>
+ */
+public class LessWatcher {
+
+    private static final LessLogger logger = LessLoggerFactory.getLogger(LessWatcher.class);
+
+    private final LessCompiler compiler;
+    private final File sourceDirectory;
+    private final File outputDirectory;
+    private long pollInterval = 100;
+    private long debounceDelay = 50;
+    private volatile FileStatCache statCache;
+
+    /** The watched files and the files they import, guarded by itself. */
+    private final ImportIndex index = new ImportIndex();
+
+    private final Set<File> pending = new LinkedHashSet<File>();
+    private ScheduledFuture<?> scheduled;
+
+    private FileAlterationMonitor monitor;
+    private ScheduledExecutorService executor;
+
+    /**
+     * Constructs a new <code>LessWatcher</code>.
+     *
+     * @param compiler The compiler used to compile the root stylesheets.
+     * @param sourceDirectory The directory with the LESS sources to watch.
+     * @param outputDirectory The directory to write the CSS to, or <code>null</code> to write it next to the LESS sources.
+     */
+    public LessWatcher(LessCompiler compiler, File sourceDirectory, File outputDirectory) {
+        if (compiler == null) {
+            throw new IllegalArgumentException("Compiler must not be null!");
+        }
+        if (sourceDirectory == null) {
+            throw new IllegalArgumentException("Source directory must not be null!");
+        }
+        this.compiler = compiler;
+        this.sourceDirectory = sourceDirectory;
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Returns the interval in milliseconds at which the directory is checked for changes.
+     *
+     * @return The interval in milliseconds at which the directory is checked for changes.
+     */
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Sets the interval in milliseconds at which the directory is checked for changes. Defaults to 100 ms.
+     * Must be set before {@link #start()} is called.
+     *
+     * @param pollInterval The interval in milliseconds at which the directory is checked for changes.
+     */
+    public synchronized void setPollInterval(long pollInterval) {
+        if (monitor != null) {
+            throw new IllegalStateException("This method can only be called before start()");
+        }
+        if (pollInterval <= 0) {
+            throw new IllegalArgumentException("Poll interval must be positive.");
+        }
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Returns the time in milliseconds the watcher waits for more changes before it compiles.
+     *
+     * @return The time in milliseconds the watcher waits for more changes before it compiles.
+     */
+    public long getDebounceDelay() {
+        return debounceDelay;
+    }
+
+    /**
+     * Sets the time in milliseconds the watcher waits for more changes before it compiles. Every change
+     * restarts the wait. Defaults to 50 ms.
+     *
+     * @param debounceDelay The time in milliseconds the watcher waits for more changes before it compiles.
+     */
+    public void setDebounceDelay(long debounceDelay) {
+        if (debounceDelay < 0) {
+            throw new IllegalArgumentException("Debounce delay must not be negative.");
+        }
+        this.debounceDelay = debounceDelay;
+    }
+
+    /**
+     * Returns the cache of last modified times the watcher invalidates, or <code>null</code>.
+     *
+     * @return The cache of last modified times the watcher invalidates.
+     */
+    public FileStatCache getStatCache() {
+        return statCache;
+    }
+
+    /**
+     * Sets a cache of last modified times to invalidate for every file the watcher sees change, so the stylesheets
+     * that use the cache notice changes without waiting for its time to live. Defaults to <code>null</code>.
+     *
+     * @param statCache The cache of last modified times to invalidate, or <code>null</code>.
+     */
+    public void setStatCache(FileStatCache statCache) {
+        this.statCache = statCache;
+    }
+
+    /**
+     * Indexes the directory, compiles the root stylesheets whose CSS is missing or older than any of their
+     * imports, and starts watching.
+     *
+     * @throws IOException If the directory cannot be indexed or watched.
+     */
+    public synchronized void start() throws IOException {
+        if (monitor != null) {
+            throw new IllegalStateException("The watcher has already been started.");
+        }
+        long start = System.currentTimeMillis();
+
+        List<File> files = new ArrayList<File>();
+        ImportIndex.listLessFiles(sourceDirectory, files);
+        synchronized (index) {
+            for (File file : files) {
+                index.add(file.getCanonicalFile());
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Indexed %d LESS sources in %s in %,d ms.", files.size(), sourceDirectory, System.currentTimeMillis() - start);
+        }
+
+        for (File root : getRootFiles()) {
+            File output = getOutputFile(root);
+            try {
+                if (!output.exists() || output.lastModified() < getLastModifiedIncludingImports(root)) {
+                    compile(root);
+                }
+            } catch (IOException e) {
+                logger.error("Failed to read " + root + ".", e);
+            }
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "LessWatcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        FileAlterationObserver observer = new FileAlterationObserver(sourceDirectory, ImportIndex.lessFileFilter());
+        observer.addListener(new Listener());
+        monitor = new FileAlterationMonitor(pollInterval, observer);
+        try {
+            monitor.start();
+        } catch (Exception e) {
+            executor.shutdownNow();
+            monitor = null;
+            throw (IOException) new IOException("Failed to watch " + sourceDirectory).initCause(e);
+        }
+    }
+
+    /**
+     * Stops watching. Compilations that are in progress are completed.
+     */
+    public synchronized void stop() {
+        if (monitor == null) {
+            return;
+        }
+        try {
+            monitor.stop();
+        } catch (Exception e) {
+            logger.error("Failed to stop watching " + sourceDirectory + ".", e);
+        }
+        executor.shutdown();
+        monitor = null;
+    }
+
+    /**
+     * Returns the root stylesheets, the watched files that no other watched file imports.
+     *
+     * @return The root stylesheets.
+     */
+    public Set<File> getRootFiles() {
+        synchronized (index) {
+            return index.getRoots();
+        }
+    }
+
+    /**
+     * Returns the root stylesheets that import the given file, directly or indirectly, or the file itself if it is a
+     * root stylesheet.
+     *
+     * @param file A LESS source.
+     * @return The root stylesheets affected by a change of the file.
+     * @throws IOException If the canonical path of the file cannot be determined.
+     */
+    public Set<File> getAffectedRootFiles(File file) throws IOException {
+        Set<File> roots = new TreeSet<File>();
+        synchronized (index) {
+            index.collectRoots(file.getCanonicalFile(), roots);
+        }
+        return roots;
+    }
+
+    /**
+     * Queues a changed file and restarts the wait for more changes.
+     */
+    private void changed(File file) {
+        FileStatCache cache = statCache;
+        if (cache != null) {
+            cache.invalidate(file);
+        }
+        synchronized (pending) {
+            pending.add(file);
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            scheduled = executor.schedule(new Runnable() {
+                public void run() {
+                    processChanges();
+                }
+            }, debounceDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void processChanges() {
+        List<File> changes;
+        synchronized (pending) {
+            changes = new ArrayList<File>(pending);
+            pending.clear();
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        Set<File> roots = new TreeSet<File>();
+        synchronized (index) {
+            for (File change : changes) {
+                File file;
+                try {
+                    file = change.getCanonicalFile();
+                } catch (IOException e) {
+                    logger.error("Failed to resolve " + change + ".", e);
+                    continue;
+                }
+                // the roots that imported the file before and after the change, e.g. when an import is removed
+                index.collectRoots(file, roots);
+                if (file.exists()) {
+                    index.add(file);
+                } else {
+                    index.remove(file);
+                }
+                index.collectRoots(file, roots);
+            }
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("%d LESS sources changed, compiling %d stylesheets.", changes.size(), roots.size());
+        }
+        for (File root : roots) {
+            if (root.exists()) {
+                compile(root);
+            }
+        }
+    }
+
+    private long getLastModifiedIncludingImports(File root) throws IOException {
+        synchronized (index) {
+            return index.getSource(root).getLastModifiedIncludingImports();
+        }
+    }
+
+    private void compile(File root) {
+        long start = System.currentTimeMillis();
+        File output = getOutputFile(root);
+        try {
+            compiler.compile(root, output, true);
+            logger.info("Compiled %s to %s in %,d ms.", root, output, System.currentTimeMillis() - start);
+        } catch (LessException e) {
+            logger.error("Failed to compile " + root + ".", e);
+        } catch (IOException e) {
+            logger.error("Failed to compile " + root + ".", e);
+        }
+    }
+
+    /**
+     * Returns the file the CSS of a root stylesheet is written to.
+     */
+    File getOutputFile(File root) {
+        return BatchCompiler.cssFile(root, sourceDirectory, outputDirectory);
+    }
+
+    private class Listener extends FileAlterationListenerAdaptor {
+
+        @Override
+        public void onFileCreate(File file) {
+            changed(file);
+        }
+
+        @Override
+        public void onFileChange(File file) {
+            changed(file);
+        }
+
+        @Override
+        public void onFileDelete(File file) {
+            changed(file);
+        }
+    }
+}
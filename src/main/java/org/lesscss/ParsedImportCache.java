@@ -0,0 +1,220 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.lesscss.logging.LessLogger;
+import org.lesscss.logging.LessLoggerFactory;
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Cache of the parsed <code>less.tree</code> roots of imported files, installed as <code>less.Parser.importCache</code>
+ * in a {@link SharedScope}.
+ * <p>
+ * Entries are keyed by the resolved name and last modified time of the import, and by the parser options that
+ * affect the tree. The LESS JavaScript changes trees while it processes imports and evaluates them, so the cache keeps
+ * a pristine copy of each tree and every compilation gets its own copy. Copying a tree is much cheaper than parsing it.
+ * </p>
+ * <p>
+ * Trees are only valid in the scope that created them, because their nodes have the prototypes of that scope.
+ * </p>
+ */
+final class ParsedImportCache {
+
+    private static final LessLogger logger = LessLoggerFactory.getLogger(ParsedImportCache.class);
+
+    /**
+     * The options that the parser reads from its environment.
+     */
+    private static final String[] PARSE_OPTIONS = { "compress", "dumpLineNumbers", "strictImports", "javascriptEnabled", "optimization" };
+
+    private final Scriptable scope;
+    private final Map<String, Entry> entries;
+
+    @SuppressWarnings("serial")
+    ParsedImportCache(Scriptable scope, final int maxEntries) {
+        this.scope = scope;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Installs the cache as <code>less.Parser.importCache</code> in the scope.
+     */
+    void install(Context cx) {
+        Scriptable importCache = cx.newObject(scope);
+        define(importCache, new Get());
+        define(importCache, new Put());
+        Scriptable less = (Scriptable) ScriptableObject.getProperty(scope, "less");
+        ScriptableObject.putProperty((Scriptable) ScriptableObject.getProperty(less, "Parser"), "importCache", importCache);
+    }
+
+    private void define(Scriptable object, BaseFunction function) {
+        ScriptRuntime.setFunctionProtoAndParent(function, scope);
+        object.put(function.getFunctionName(), object, function);
+    }
+
+    /**
+     * Returns a copy of the cached tree of the import, with <code>env.currentFileInfo</code> as its file info,
+     * or <code>null</code> if there is none.
+     */
+    Object get(Context cx, String name, Scriptable env) {
+        String key = key(name, env);
+        if (key == null) {
+            return null;
+        }
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            return null;
+        }
+        IdentityHashMap<Object, Object> copies = new IdentityHashMap<Object, Object>();
+        if (entry.fileInfo != null) {
+            // nodes refer to the file info of the compilation that uses them
+            copies.put(entry.fileInfo, ScriptableObject.getProperty(env, "currentFileInfo"));
+        }
+        logger.debug("Using cached tree of %s", name);
+        return copy(cx, entry.root, copies);
+    }
+
+    /**
+     * Caches a copy of the tree that was just parsed from the import.
+     */
+    void put(Context cx, String name, Scriptable env, Object root) {
+        String key = key(name, env);
+        if (key == null) {
+            return;
+        }
+        IdentityHashMap<Object, Object> copies = new IdentityHashMap<Object, Object>();
+        Object copy = copy(cx, root, copies);
+        Entry entry = new Entry(copy, copies.get(ScriptableObject.getProperty(env, "currentFileInfo")));
+        synchronized (this) {
+            entries.put(key, entry);
+        }
+    }
+
+    private String key(String name, Scriptable env) {
+        long lastModified = Compilation.current().getLastModified(name);
+        if (lastModified == 0) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(name).append('|').append(lastModified);
+        for (String option : PARSE_OPTIONS) {
+            key.append('|').append(property(env, option));
+        }
+        return key.toString();
+    }
+
+    private static String property(Scriptable object, String name) {
+        Object value = ScriptableObject.getProperty(object, name);
+        return value == Scriptable.NOT_FOUND ? "" : Context.toString(value);
+    }
+
+    /**
+     * Copies the arrays and plain objects of a tree, keeping their prototypes. Functions, primitives and other
+     * objects are shared, as the LESS JavaScript does not change them.
+     */
+    private Object copy(Context cx, Object value, IdentityHashMap<Object, Object> copies) {
+        if (!(value instanceof NativeObject || value instanceof NativeArray) || value instanceof Function) {
+            return value;
+        }
+        Object existing = copies.get(value);
+        if (existing != null) {
+            return existing;
+        }
+
+        Scriptable source = (Scriptable) value;
+        Scriptable target;
+        if (source instanceof NativeArray) {
+            target = cx.newArray(scope, 0);
+        } else {
+            target = new NativeObject();
+            target.setPrototype(source.getPrototype());
+            target.setParentScope(source.getParentScope());
+        }
+        copies.put(source, target);
+
+        for (Object id : source.getIds()) {
+            if (id instanceof Integer) {
+                int index = ((Integer) id).intValue();
+                target.put(index, target, copy(cx, source.get(index, source), copies));
+            } else {
+                String name = id.toString();
+                target.put(name, target, copy(cx, source.get(name, source), copies));
+            }
+        }
+        if (source instanceof NativeArray) {
+            // keeps trailing holes
+            ScriptableObject.putProperty(target, "length", ScriptableObject.getProperty(source, "length"));
+        }
+        return target;
+    }
+
+    private static class Entry {
+        private final Object root;
+        private final Object fileInfo;
+
+        private Entry(Object root, Object fileInfo) {
+            this.root = root;
+            this.fileInfo = fileInfo;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class Get extends BaseFunction {
+
+        @Override
+        public String getFunctionName() {
+            return "get";
+        }
+
+        @Override
+        public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+            Object root = ParsedImportCache.this.get(cx, Context.toString(args[0]), (Scriptable) args[1]);
+            return root != null ? root : Context.getUndefinedValue();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class Put extends BaseFunction {
+
+        @Override
+        public String getFunctionName() {
+            return "put";
+        }
+
+        @Override
+        public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+            ParsedImportCache.this.put(cx, Context.toString(args[0]), (Scriptable) args[1], args[2]);
+            return Context.getUndefinedValue();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lesscss.logging.LessLogger;
+import org.lesscss.logging.LessLoggerFactory;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+
+/**
+ * Loads the JavaScript used by the compiler.
+ * <p>
+ * The bundled LESS and LESSC JavaScript are compiled to Java classes by Rhino's class compiler during the build.
+ * Those classes are used instead of parsing the bundled JavaScript, other JavaScript is parsed and compiled when
+ * it is loaded.
+ * </p>
+ */
+final class ScriptLoader {
+
+    private static final LessLogger logger = LessLoggerFactory.getLogger(ScriptLoader.class);
+
+    static final URL LESS_JS = LessCompiler.class.getClassLoader().getResource("META-INF/less-rhino-1.7.0.js");
+    static final URL LESSC_JS = LessCompiler.class.getClassLoader().getResource("META-INF/lessc-rhino-1.7.0.js");
+
+    /**
+     * The precompiled classes by the location of their JavaScript source, see the <code>jsc</code> executions in the pom.
+     */
+    private static final Map<String, String> precompiled = new HashMap<String, String>();
+
+    static {
+        precompiled.put(String.valueOf(LESS_JS), "org.lesscss.js.LessRhino");
+        precompiled.put(String.valueOf(LESSC_JS), "org.lesscss.js.LesscRhino");
+    }
+
+    private ScriptLoader() {
+    }
+
+    /**
+     * Returns the script for the given JavaScript file, using the precompiled class if there is one.
+     */
+    static Script load(Context cx, URL url) throws IOException {
+        String className = precompiled.get(url.toString());
+        if (className != null) {
+            try {
+                return (Script) Class.forName(className, true, ScriptLoader.class.getClassLoader()).newInstance();
+            } catch (ClassNotFoundException e) {
+                // e.g. when running from an IDE that did not run the build's jsc step
+                logger.debug("Precompiled %s not found, compiling %s.", className, url);
+            } catch (Exception e) {
+                throw (IOException) new IOException("Could not load precompiled " + className).initCause(e);
+            }
+        }
+        Reader reader = new InputStreamReader(url.openConnection().getInputStream());
+        try {
+            return cx.compileReader(reader, url.toString(), 1, null);
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lesscss.logging.LessLogger;
+import org.lesscss.logging.LessLoggerFactory;
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.tools.shell.Global;
+
+/**
+ * A sealed top-level scope in which the LESS and custom JavaScript have been evaluated once.
+ * <p>
+ * Compilations run the LESSC script in a child scope of the shared scope, so any number of threads
+ * can compile at the same time against a single copy of the LESS parser and functions. Scopes are
+ * shared between all compilers that use the same JavaScript files.
+ * </p>
+ * <p>
+ * The parsed trees of imported files are cached in the scope, see {@link ParsedImportCache}.
+ * </p>
+ *
+ * @see LessCompiler#setSharedScope(boolean)
+ */
+final class SharedScope {
+
+    private static final LessLogger logger = LessLoggerFactory.getLogger(SharedScope.class);
+
+    private static final Map<String, SharedScope> scopes = new HashMap<String, SharedScope>();
+
+    /**
+     * Enables dynamic scope, so variables that the LESS JavaScript assigns without declaring them end up
+     * in the scope of the running compilation instead of in the sealed shared scope.
+     */
+    private static final ContextFactory contextFactory = new LessContextFactory() {
+        @Override
+        protected boolean hasFeature(Context cx, int featureIndex) {
+            if (featureIndex == Context.FEATURE_DYNAMIC_SCOPE) {
+                return true;
+            }
+            return super.hasFeature(cx, featureIndex);
+        }
+    };
+
+    private final ScriptableObject scope;
+    private final Script lessc;
+
+    private SharedScope(URL lessJs, List<URL> customJs, URL lesscJs) throws IOException {
+        long start = System.currentTimeMillis();
+
+        Context cx = enterContext();
+        try {
+            Global global = new Global();
+            global.init(cx);
+            scope = (ScriptableObject) cx.initStandardObjects(global);
+            scope.put("logger", scope, Context.toObject(logger, scope));
+            Compilation.defineFunctions(scope);
+
+            // less first, then the custom js so it has a chance to add any hooks
+            evaluate(cx, lessJs);
+            for (URL url : customJs) {
+                evaluate(cx, url);
+            }
+
+            // imports shared by many stylesheets are parsed only once
+            new ParsedImportCache(scope, 500).install(cx);
+
+            // lessc is run for every compilation, in the compilation's own scope
+            lessc = ScriptLoader.load(cx, lesscJs);
+
+            // less indexes the tree node types when the first visitor is created, do that before the scope is shared
+            cx.evaluateString(scope, "new less.tree.visitor({});", "init", 1, null);
+
+            scope.sealObject();
+        } finally {
+            Context.exit();
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Finished initialization of shared LESS scope in %,d ms.", System.currentTimeMillis() - start);
+        }
+    }
+
+    private void evaluate(Context cx, URL url) throws IOException {
+        ScriptLoader.load(cx, url).exec(cx, scope);
+    }
+
+    /**
+     * Enters a <code>Context</code> suitable for running scripts against a shared scope.
+     */
+    static Context enterContext() {
+        Context cx = contextFactory.enterContext();
+        cx.setLanguageVersion(Context.VERSION_1_7);
+        return cx;
+    }
+
+    /**
+     * Returns the shared scope for the given JavaScript files, initializing it if needed.
+     */
+    static SharedScope get(URL lessJs, List<URL> customJs, URL lesscJs) throws IOException {
+        String key = lessJs + " " + customJs + " " + lesscJs;
+        synchronized (scopes) {
+            SharedScope sharedScope = scopes.get(key);
+            if (sharedScope == null) {
+                sharedScope = new SharedScope(lessJs, customJs, lesscJs);
+                scopes.put(key, sharedScope);
+            }
+            return sharedScope;
+        }
+    }
+
+    /**
+     * Returns the sealed top-level scope.
+     */
+    Scriptable getScope() {
+        return scope;
+    }
+
+    /**
+     * Creates the scope for a single compilation. Output printed by the LESSC script is appended to <code>out</code>.
+     */
+    ScriptableObject newCompileScope(Context cx, StringBuilder out) {
+        ScriptableObject compileScope = (ScriptableObject) cx.newObject(scope);
+        compileScope.setPrototype(scope);
+        compileScope.setParentScope(null);
+        compileScope.defineProperty("print", new Print(out), ScriptableObject.DONTENUM);
+        return compileScope;
+    }
+
+    /**
+     * Runs the LESSC script in the given compilation scope.
+     */
+    void compile(Context cx, Scriptable compileScope) {
+        lessc.exec(cx, compileScope);
+    }
+
+    /**
+     * Replacement for the shell's <code>print</code> function that writes to a per compilation buffer
+     * instead of the shared output stream.
+     */
+    @SuppressWarnings("serial")
+    private static class Print extends BaseFunction {
+
+        private final StringBuilder out;
+
+        private Print(StringBuilder out) {
+            this.out = out;
+        }
+
+        @Override
+        public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+            for (int i = 0; i < args.length; i++) {
+                if (i > 0) {
+                    out.append(' ');
+                }
+                out.append(Context.toString(args[i]));
+            }
+            out.append('\n');
+            return Context.getUndefinedValue();
+        }
+    }
+}
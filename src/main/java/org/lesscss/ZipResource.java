@@ -0,0 +1,101 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Implementation of {@link Resource} for an entry of a zip or jar file.
+ * <p>
+ * Entries are read straight from the zip file, nothing is extracted. Their last modified time is the time of the
+ * entry. The zip file is not closed by the resource, it must stay open as long as the resource and the resources
+ * created relative to it are used.
+ * </p>
+ * <h4>Basic code example:</h4>
+ * <pre>
+ * ZipFile themes = new ZipFile("themes.jar");
+ * try {
+ *     String css = lessCompiler.compile(new LessSource(new ZipResource(themes, "less/blue.less")));
+ * } finally {
+ *     themes.close();
+ * }
+ * </pre>
+ */
+public class ZipResource implements Resource {
+
+    private final ZipFile zipFile;
+    private final String entryName;
+
+    /**
+     * Constructs a new <code>ZipResource</code>.
+     *
+     * @param zipFile The zip file.
+     * @param entryName The name of the entry, e.g. <code>less/theme.less</code>.
+     */
+    public ZipResource(ZipFile zipFile, String entryName) {
+        if (zipFile == null) {
+            throw new IllegalArgumentException("Zip file must not be null!");
+        }
+        if (entryName == null) {
+            throw new IllegalArgumentException("Entry name must not be null!");
+        }
+        this.zipFile = zipFile;
+        this.entryName = entryName.startsWith("/") ? entryName.substring(1) : entryName;
+    }
+
+    public boolean exists() {
+        return getEntry() != null;
+    }
+
+    public long lastModified() {
+        ZipEntry entry = getEntry();
+        return entry != null && entry.getTime() > 0 ? entry.getTime() : 0;
+    }
+
+    public InputStream getInputStream() throws IOException {
+        ZipEntry entry = getEntry();
+        if (entry == null) {
+            throw new FileNotFoundException("Entry " + entryName + " not found in " + zipFile.getName() + ".");
+        }
+        return zipFile.getInputStream(entry);
+    }
+
+    public Resource createRelative(String relativeResourcePath) throws IOException {
+        String relativeEntryName = FilenameUtils.normalize(FilenameUtils.getPath(entryName) + relativeResourcePath, true);
+        if (relativeEntryName == null) {
+            throw new IOException("Could not resolve " + relativeResourcePath + " against " + getName());
+        }
+        return new ZipResource(zipFile, relativeEntryName);
+    }
+
+    public String getName() {
+        return zipFile.getName() + "!/" + entryName;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    private ZipEntry getEntry() {
+        return zipFile.getEntry(entryName);
+    }
+}
@@ -8,7 +8,7 @@ class JULILessLoggerProvider implements LessLoggerProvider {
         return new JULILessLogger(Logger.getLogger(clazz.getName()));
     }
 
-    private static class JULILessLogger implements LessLogger {
+    private static class JULILessLogger implements LessWarningLogger {
         private final Logger logger;
 
         private JULILessLogger(Logger logger) {
@@ -43,6 +43,10 @@ class JULILessLoggerProvider implements LessLoggerProvider {
             }
         }
 
+        public void warn(String msg) {
+            logger.warning(msg);
+        }
+
         public void error(String msg, Throwable t) {
             logger.log(Level.SEVERE, msg, t);
         }
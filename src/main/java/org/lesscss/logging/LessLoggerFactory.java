@@ -16,4 +16,15 @@ public class LessLoggerFactory {
     public static LessLogger getLogger(Class<?> clazz) {
         return instance.loggerProvider.getLogger(clazz);
     }
+
+    /**
+     * Logs a warning, or an info message if the logger is not a {@link LessWarningLogger}.
+     */
+    public static void warn(LessLogger logger, String msg) {
+        if (logger instanceof LessWarningLogger) {
+            ((LessWarningLogger) logger).warn(msg);
+        } else {
+            logger.info(msg);
+        }
+    }
 }
@@ -0,0 +1,11 @@
+package org.lesscss.logging;
+
+/**
+ * A <code>LessLogger</code> that can log warnings. Warnings sent to other loggers are logged as info messages.
+ *
+ * @see LessLoggerFactory#warn(LessLogger, String)
+ */
+public interface LessWarningLogger extends LessLogger {
+    void warn(String msg);
+
+}
@@ -5,7 +5,7 @@ class SLF4JLessLoggerProvider implements LessLoggerProvider {
         return new SLF4JLessLogger(org.slf4j.LoggerFactory.getLogger(clazz));
     }
 
-    private static class SLF4JLessLogger implements LessLogger {
+    private static class SLF4JLessLogger implements LessWarningLogger {
         private final org.slf4j.Logger logger;
 
         private SLF4JLessLogger(org.slf4j.Logger logger) {
@@ -40,6 +40,10 @@ class SLF4JLessLoggerProvider implements LessLoggerProvider {
             }
         }
 
+        public void warn(String msg) {
+            logger.warn(msg);
+        }
+
         public void error(String msg, Throwable t) {
             logger.error(msg, t);
         }
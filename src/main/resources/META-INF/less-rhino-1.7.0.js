@@ -45,7 +45,13 @@ less.mode = 'rhino';
                     args[i-1] = arg;
                 }
                 try {
-                    out.println(type + java.lang.String.format(format, args));
+                    var message = java.lang.String.format(format, args);
+                    if (type === 'WARN: ' && typeof(lessWarn) !== 'undefined') {
+                        // the Java compiler collects the warnings of each compilation
+                        lessWarn(message);
+                    } else {
+                        out.println(type + message);
+                    }
                 } catch(ex) {
                     stderr.println(ex);
                 }
@@ -250,10 +256,19 @@ less.Parser = function Parser(env) {
                         newFileInfo.reference = true;
                     }
 
+                    // less.Parser.importCache, if set, keeps the parsed trees of imports between compilations
+                    var importCache = less.Parser.importCache,
+                        cachedRoot = importCache && !importOptions.inline && importCache.get(fullPath, newEnv);
+
                     if (importOptions.inline) {
                         fileParsedFunc(null, contents, fullPath);
+                    } else if (cachedRoot) {
+                        fileParsedFunc(null, cachedRoot, fullPath);
                     } else {
                         new(less.Parser)(newEnv).parse(contents, function (e, root) {
+                            if (!e && importCache) {
+                                importCache.put(fullPath, newEnv, root);
+                            }
                             fileParsedFunc(e, root, fullPath);
                         });
                     }
@@ -747,11 +762,26 @@ less.Parser = function Parser(env) {
                                 });
                         }
 
-                        css = evaldRoot.toCSS({
+                        var cssEnv = {
                                 compress: Boolean(options.compress),
                                 dumpLineNumbers: env.dumpLineNumbers,
                                 strictUnits: Boolean(options.strictUnits),
-                                numPrecision: 8});
+                                numPrecision: 8};
+
+                        if (typeof(lessPhase) !== 'undefined') {
+                            lessPhase('toCSS');
+                        }
+
+                        // with a writeCSS function the CSS is passed to it in chunks as it is generated,
+                        // instead of being joined into a single string
+                        if (options.writeCSS && !options.sourceMap) {
+                            var output = new(tree.chunkedOutput)(options.writeCSS, Boolean(options.compress));
+                            evaldRoot.genCSS(cssEnv, output);
+                            output.flush(true);
+                            return '';
+                        }
+
+                        css = evaldRoot.toCSS(cssEnv);
                     } catch (e) {
                         throw new(LessError)(e, env);
                     }
@@ -3204,6 +3234,54 @@ tree.toCSS = function (env) {
     return strs.join('');
 };
 
+//
+// Output for genCSS that passes the CSS to `write` in chunks of about 8k characters.
+// With `trim` the leading and trailing whitespace of the whole CSS is removed, like
+// the compressed output of toCSS.
+//
+tree.chunkedOutput = function (write, trim) {
+    this.write = write;
+    this.trim = trim;
+    this.strs = [];
+    this.length = 0;
+    this.empty = true;
+    this.started = false;
+    this.held = '';
+};
+tree.chunkedOutput.prototype = {
+    add: function (chunk, fileInfo, index) {
+        this.empty = false;
+        chunk = String(chunk);
+        this.strs.push(chunk);
+        this.length += chunk.length;
+        if (this.length >= 8192) {
+            this.flush(false);
+        }
+    },
+    isEmpty: function () {
+        return this.empty;
+    },
+    flush: function (last) {
+        var s = this.strs.join(''), end;
+        this.strs = [];
+        this.length = 0;
+        if (this.trim) {
+            s = this.held + s;
+            if (!this.started) {
+                s = s.replace(/^\s+/, '');
+            }
+            // trailing whitespace is only written once more CSS follows it
+            end = s.search(/\s*$/);
+            this.held = last ? '' : s.substring(end);
+            s = s.substring(0, end);
+            this.started = this.started || s.length > 0;
+        }
+        if (s.length > 0) {
+            this.write(s);
+        }
+    }
+};
+
 tree.outputRuleset = function (env, output, rules) {
     var ruleCnt = rules.length, i;
     env.tabLevel = (env.tabLevel | 0) + 1;
@@ -6229,8 +6307,7 @@ tree.Variable.prototype = {
 
 (function (tree) {
 
-    var _visitArgs = { visitDeeper: true },
-        _hasIndexed = false;
+    var _hasIndexed = false;
 
     function _noop(node) {
         return node;
@@ -6262,6 +6339,8 @@ tree.Variable.prototype = {
     tree.visitor = function(implementation) {
         this._implementation = implementation;
         this._visitFnCache = [];
+        // visit arguments are kept per visitor, so visitors running on different threads don't share them
+        this._visitArgs = { visitDeeper: true };
 
         if (!_hasIndexed) {
             indexNodeTypes(tree, 1);
@@ -6286,7 +6365,7 @@ tree.Variable.prototype = {
                 outAryIndex = aryIndx | 1,
                 func = visitFnCache[aryIndx],
                 funcOut = visitFnCache[outAryIndex],
-                visitArgs = _visitArgs,
+                visitArgs = this._visitArgs,
                 fnName;
 
             visitArgs.visitDeeper = true;
@@ -87,54 +87,66 @@ function loadStyleSheet(sheet, callback, reload, remaining) {
     });
 }
 
-less.Parser.fileLoader = function (file, currentFileInfo, callback, env) {
-
-    var href = file;
-    if (currentFileInfo && currentFileInfo.currentDirectory && !/^\//.test(file)) {
-        href = less.modules.path.join(currentFileInfo.currentDirectory, file);
-    }
-
-    var path = less.modules.path.dirname(href);
-
-    var newFileInfo = {
-        currentDirectory: path + '/',
-        filename: href
-    };
+// the loader only uses functions of the top-level scope, so a scope shared by many compilations installs it once
+if (!less.Parser.fileLoader || !less.Parser.fileLoader.lessc) {
+    less.Parser.fileLoader = function (file, currentFileInfo, callback, env) {
+
+        var href = file;
+        if (typeof(lessResolveImport) !== 'undefined') {
+            // the Java compiler resolves imports against the resource of the importing file
+            try {
+                href = String(lessResolveImport(file, currentFileInfo ? currentFileInfo.filename : null));
+            } catch (e) {
+                callback({ type: 'File', message: "'" + less.modules.path.basename(file) + "' wasn't found" });
+                return;
+            }
+        } else if (currentFileInfo && currentFileInfo.currentDirectory && !/^\//.test(file)) {
+            href = less.modules.path.join(currentFileInfo.currentDirectory, file);
+        }
 
-    if (currentFileInfo) {
-        newFileInfo.entryPath = currentFileInfo.entryPath;
-        newFileInfo.rootpath = currentFileInfo.rootpath;
-        newFileInfo.rootFilename = currentFileInfo.rootFilename;
-        newFileInfo.relativeUrls = currentFileInfo.relativeUrls;
-    } else {
-        newFileInfo.entryPath = path;
-        newFileInfo.rootpath = less.rootpath || path;
-        newFileInfo.rootFilename = href;
-        newFileInfo.relativeUrls = env.relativeUrls;
-    }
+        var path = less.modules.path.dirname(href);
+
+        var newFileInfo = {
+            currentDirectory: path + '/',
+            filename: href
+        };
+
+        if (currentFileInfo) {
+            newFileInfo.entryPath = currentFileInfo.entryPath;
+            newFileInfo.rootpath = currentFileInfo.rootpath;
+            newFileInfo.rootFilename = currentFileInfo.rootFilename;
+            newFileInfo.relativeUrls = currentFileInfo.relativeUrls;
+        } else {
+            newFileInfo.entryPath = path;
+            newFileInfo.rootpath = less.rootpath || path;
+            newFileInfo.rootFilename = href;
+            newFileInfo.relativeUrls = env.relativeUrls;
+        }
 
-    var j = file.lastIndexOf('/');
-    if(newFileInfo.relativeUrls && !/^(?:[a-z-]+:|\/)/.test(file) && j != -1) {
-        var relativeSubDirectory = file.slice(0, j+1);
-        newFileInfo.rootpath = newFileInfo.rootpath + relativeSubDirectory; // append (sub|sup) directory path of imported file
-    }
-    newFileInfo.currentDirectory = path;
-    newFileInfo.filename = href;
+        var j = file.lastIndexOf('/');
+        if(newFileInfo.relativeUrls && !/^(?:[a-z-]+:|\/)/.test(file) && j != -1) {
+            var relativeSubDirectory = file.slice(0, j+1);
+            newFileInfo.rootpath = newFileInfo.rootpath + relativeSubDirectory; // append (sub|sup) directory path of imported file
+        }
+        newFileInfo.currentDirectory = path;
+        newFileInfo.filename = href;
 
-    var data = null;
-    try {
-        data = readFile(href);
-    } catch (e) {
-        callback({ type: 'File', message: "'" + less.modules.path.basename(href) + "' wasn't found" });
-        return;
-    }
+        var data = null;
+        try {
+            data = typeof(lessReadImport) !== 'undefined' ? String(lessReadImport(href)) : readFile(href);
+        } catch (e) {
+            callback({ type: 'File', message: "'" + less.modules.path.basename(href) + "' wasn't found" });
+            return;
+        }
 
-    try {
-        callback(null, data, href, newFileInfo, { lastModified: 0 });
-    } catch (e) {
-        callback(e, null, href);
-    }
-};
+        try {
+            callback(null, data, href, newFileInfo, { lastModified: 0 });
+        } catch (e) {
+            callback(e, null, href);
+        }
+    };
+    less.Parser.fileLoader.lessc = true;
+}
 
 
 function writeFile(filename, content) {
@@ -415,7 +427,8 @@ function writeFile(filename, content) {
 
     var input = null;
     try {
-        input = readFile(name, 'utf-8');
+        // the Java compiler provides the input as lessInput when it doesn't come from a file
+        input = typeof(lessInput) === 'undefined' ? readFile(name, 'utf-8') : String(lessInput);
 
     } catch (e) {
         console.log('lesscss: couldn\'t open file ' + name);
@@ -424,20 +437,34 @@ function writeFile(filename, content) {
 
     options.filename = name;
     var result;
+    // the Java compiler measures the time of each phase of the compilation
+    var phase = typeof(lessPhase) !== 'undefined' ? lessPhase : function () {};
     try {
         var parser = new less.Parser(options);
+        phase('parse');
         parser.parse(input, function (e, root) {
             if (e) {
                 writeError(e, options);
                 quit(1);
             } else {
-                result = root.toCSS(options);
-                if (output) {
-                    writeFile(output, result);
-                    console.log("Written to " + output);
+                phase('eval');
+                if (typeof(lessOutput) !== 'undefined') {
+                    // the Java compiler writes the CSS through to its output as it is generated
+                    options.writeCSS = lessOutput;
+                    root.toCSS(options);
+                } else if (typeof(lessResult) !== 'undefined') {
+                    // the Java compiler takes the CSS as a string instead of reading it back from the printed output
+                    lessResult(root.toCSS(options) + '\n');
                 } else {
-                    print(result);
+                    result = root.toCSS(options);
+                    if (output) {
+                        writeFile(output, result);
+                        console.log("Written to " + output);
+                    } else {
+                        print(result);
+                    }
                 }
+                phase('done');
                 quit(0);
             }
         });
@@ -0,0 +1,133 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lesscss.AsyncLessCompiler;
+import org.lesscss.LessException;
+
+public class AsyncLessCompilerIT extends AbstractCompileIT {
+
+    private static final String LESS = "@color: #4D926F; #header { color: @color; }";
+    private static final String CSS = "#header {\n  color: #4d926f;\n}\n\n";
+
+    private AsyncLessCompiler asyncCompiler;
+
+    @Before
+    public void setUpAsyncCompiler() {
+        asyncCompiler = new AsyncLessCompiler(lessCompiler);
+        asyncCompiler.setThreads(1);
+    }
+
+    @After
+    public void tearDownAsyncCompiler() throws Exception {
+        asyncCompiler.shutdown();
+        asyncCompiler.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    @Test
+    public void testCompileAsync() throws Exception {
+        Future<String> css = asyncCompiler.compileAsync(toFile("compatibility/less/css.less"));
+        String expected = FileUtils.readFileToString(toFile("compatibility/css/css.css")).replace("\r\n", "\n") + "\n";
+        assertEquals(expected, css.get());
+        assertEquals(1, asyncCompiler.getStartedCount());
+    }
+
+    @Test
+    public void testCallback() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        final AtomicReference<String> completed = new AtomicReference<String>();
+        final AtomicReference<Throwable> failed = new AtomicReference<Throwable>();
+        AsyncLessCompiler.Callback callback = new AsyncLessCompiler.Callback() {
+            public void completed(String css) {
+                completed.set(css);
+                latch.countDown();
+            }
+
+            public void failed(Throwable cause) {
+                failed.set(cause);
+                latch.countDown();
+            }
+        };
+
+        asyncCompiler.compileAsync(LESS, "ok.less", callback);
+        asyncCompiler.compileAsync(".a { color: @undefined; }", "broken.less", callback);
+
+        assertTrue(latch.await(1, TimeUnit.MINUTES));
+        assertEquals(CSS, completed.get());
+        assertTrue(failed.get() instanceof LessException);
+    }
+
+    @Test
+    public void testRejectWhenQueueIsFull() throws Exception {
+        asyncCompiler.setQueueCapacity(1);
+
+        // the first compilation keeps the only thread busy while it initializes the compiler
+        Future<String> running = asyncCompiler.compileAsync(LESS);
+        Future<String> queued = asyncCompiler.compileAsync(LESS);
+        try {
+            asyncCompiler.compileAsync(LESS);
+            fail("Expected RejectedExecutionException");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        assertEquals(1, asyncCompiler.getQueueDepth());
+        assertEquals(1, asyncCompiler.getRejectedCount());
+        assertEquals(CSS, running.get());
+        assertEquals(CSS, queued.get());
+        assertTrue(asyncCompiler.getMaxWaitTime() > 0);
+    }
+
+    @Test
+    public void testShedOldestWhenQueueIsFull() throws Exception {
+        asyncCompiler.setQueueCapacity(1);
+        asyncCompiler.setOverflowPolicy(AsyncLessCompiler.OverflowPolicy.SHED_OLDEST);
+
+        Future<String> running = asyncCompiler.compileAsync(LESS);
+        Future<String> shed = asyncCompiler.compileAsync(LESS);
+        Future<String> queued = asyncCompiler.compileAsync(LESS);
+
+        try {
+            shed.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof LessException);
+        }
+        assertEquals(1, asyncCompiler.getShedCount());
+        assertEquals(CSS, running.get());
+        assertEquals(CSS, queued.get());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testRejectAfterShutdown() throws Exception {
+        asyncCompiler.shutdown();
+        asyncCompiler.compileAsync(LESS);
+    }
+}
@@ -0,0 +1,90 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lesscss.BatchCompiler;
+import org.lesscss.LessException;
+import org.lesscss.LessSource;
+
+public class BatchCompilerIT extends AbstractCompileIT {
+
+    private static final String[] NAMES = { "colors", "comments", "css", "mixins", "operations", "variables" };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BatchCompiler batchCompiler;
+
+    @Before
+    public void setUpBatchCompiler() {
+        batchCompiler = new BatchCompiler(lessCompiler);
+        batchCompiler.setThreads(3);
+    }
+
+    @Test
+    public void testCompileAll() throws Exception {
+        List<LessSource> sources = new ArrayList<LessSource>();
+        for (String name : NAMES) {
+            sources.add(new LessSource(toFile("compatibility/less/" + name + ".less")));
+        }
+
+        List<BatchCompiler.Result> results = batchCompiler.compileAll(sources, folder.getRoot());
+
+        assertEquals(NAMES.length, results.size());
+        for (int i = 0; i < NAMES.length; i++) {
+            BatchCompiler.Result result = results.get(i);
+            assertTrue(result.getName(), result.isSuccessful());
+            assertEquals(new File(folder.getRoot(), NAMES[i] + ".css"), result.getOutput());
+            assertEquals(expected(NAMES[i]), FileUtils.readFileToString(result.getOutput()));
+        }
+    }
+
+    @Test
+    public void testCompileFilesContinuesAfterFailure() throws Exception {
+        File broken = new File(folder.getRoot(), "broken.less");
+        FileUtils.writeStringToFile(broken, ".a { color: @undefined; }");
+
+        Map<File, File> files = new LinkedHashMap<File, File>();
+        files.put(broken, new File(folder.getRoot(), "broken.css"));
+        files.put(toFile("compatibility/less/css.less"), new File(folder.getRoot(), "css.css"));
+
+        List<BatchCompiler.Result> results = batchCompiler.compileFiles(files);
+
+        assertFalse(results.get(0).isSuccessful());
+        assertTrue(results.get(0).getException() instanceof LessException);
+        assertFalse(new File(folder.getRoot(), "broken.css").exists());
+        assertTrue(results.get(1).isSuccessful());
+        assertEquals(expected("css"), FileUtils.readFileToString(new File(folder.getRoot(), "css.css")));
+    }
+
+    private String expected(String name) throws Exception {
+        return FileUtils.readFileToString(toFile("compatibility/css/" + name + ".css")).replace("\r\n", "\n") + "\n";
+    }
+}
@@ -0,0 +1,119 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lesscss.ClasspathResource;
+import org.lesscss.LessSource;
+import org.lesscss.Resource;
+import org.lesscss.ZipResource;
+
+public class ClasspathResourceIT extends AbstractCompileIT {
+
+    private static final long TIME = 1400000000000L;
+    private static final String CSS = ".theme {\n  color: #4d926f;\n  margin: 0;\n}\n\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File jar;
+
+    @Before
+    public void setUpJar() throws Exception {
+        jar = folder.newFile("themes.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            add(out, "META-INF/less/theme.less", "@import \"../../common/vars.less\";\n@import \"mixins\";\n.theme { color: @color; .reset(); }\n");
+            add(out, "META-INF/less/mixins.less", ".reset() { margin: 0; }\n");
+            add(out, "common/vars.less", "@color: #4d926f;\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void testCompileFromClasspath() throws Exception {
+        String css = lessCompiler.compile(new LessSource(new ClasspathResource("/import/less/import.less")));
+        String expected = FileUtils.readFileToString(toFile("import/css/import.css")).replace("\r\n", "\n") + "\n";
+        assertEquals(expected, css);
+    }
+
+    @Test
+    public void testCompileFromJarOnClasspath() throws Exception {
+        URLClassLoader classLoader = new URLClassLoader(new URL[] { jar.toURI().toURL() }, null);
+        Resource resource = new ClasspathResource("META-INF/less/theme.less", classLoader);
+        assertTrue(resource.exists());
+        assertEquals(TIME, resource.lastModified());
+        assertEquals("classpath:common/vars.less", resource.createRelative("../../common/vars.less").getName());
+        assertFalse(resource.createRelative("missing.less").exists());
+
+        LessSource source = new LessSource(resource);
+        assertEquals(TIME, source.getLastModifiedIncludingImports());
+        assertEquals(CSS, lessCompiler.compile(source));
+    }
+
+    @Test
+    public void testLastModifiedInDirectoryOnClasspath() throws Exception {
+        File file = new File(folder.newFolder("classes"), "theme.less");
+        FileUtils.writeStringToFile(file, ".theme { color: #4d926f; }\n", "UTF-8");
+        file.setLastModified(TIME);
+
+        URLClassLoader classLoader = new URLClassLoader(new URL[] { file.getParentFile().toURI().toURL() }, null);
+        Resource resource = new ClasspathResource("theme.less", classLoader);
+        assertEquals(TIME, resource.lastModified());
+        assertEquals(0, resource.createRelative("missing.less").lastModified());
+    }
+
+    @Test
+    public void testCompileFromZipFile() throws Exception {
+        ZipFile zipFile = new ZipFile(jar);
+        try {
+            Resource resource = new ZipResource(zipFile, "META-INF/less/theme.less");
+            assertTrue(resource.exists());
+            assertEquals(TIME, resource.lastModified());
+            assertFalse(resource.createRelative("missing.less").exists());
+
+            LessSource source = new LessSource(resource);
+            assertEquals(2, source.getImports().size());
+            assertEquals(CSS, lessCompiler.compile(source));
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    private void add(JarOutputStream out, String name, String content) throws Exception {
+        JarEntry entry = new JarEntry(name);
+        entry.setTime(TIME);
+        out.putNextEntry(entry);
+        out.write(content.getBytes("UTF-8"));
+        out.closeEntry();
+    }
+}
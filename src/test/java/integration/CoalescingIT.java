@@ -0,0 +1,160 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lesscss.CompilationAbortedException;
+import org.lesscss.CompilationEvent;
+import org.lesscss.CompilationListener;
+import org.lesscss.LessCompiler;
+import org.lesscss.LessException;
+
+public class CoalescingIT extends AbstractCompileIT {
+
+    private static final int THREADS = 5;
+
+    private final AtomicInteger compilations = new AtomicInteger();
+
+    @Before
+    public void setUpCompiler() throws Exception {
+        lessCompiler.setCoalescing(true);
+        lessCompiler.addCompilationListener(new CompilationListener() {
+            public void compilationFinished(CompilationEvent event) {
+                compilations.incrementAndGet();
+            }
+        });
+        lessCompiler.compile("a { color: red; }");
+        compilations.set(0);
+    }
+
+    @Test
+    public void testConcurrentCompilationsShareResult() throws Exception {
+        List<Compiler> compilers = compileConcurrently("@color: #4D926F; #header { color: @color; }");
+        for (Compiler compiler : compilers) {
+            assertEquals("#header {\n  color: #4d926f;\n}\n\n", compiler.css);
+        }
+        assertEquals(1, compilations.get());
+    }
+
+    @Test
+    public void testConcurrentCompilationsShareFailure() throws Exception {
+        List<Compiler> compilers = compileConcurrently("a { color: @undefined; }");
+        for (Compiler compiler : compilers) {
+            assertTrue(compiler.failure instanceof LessException);
+            assertEquals(compilers.get(0).failure.getMessage(), compiler.failure.getMessage());
+        }
+        assertEquals(1, compilations.get());
+
+        // the failure is not remembered once the compilation has finished
+        Compiler again = new Compiler(lessCompiler, "a { color: @undefined; }");
+        again.run();
+        assertTrue(again.failure instanceof LessException);
+        assertEquals(2, compilations.get());
+    }
+
+    @Test
+    public void testWaitingCompilationTimesOut() throws Exception {
+        lessCompiler.setTimeout(200);
+        String input = "a { color: blue; }";
+        List<Compiler> compilers = new ArrayList<Compiler>();
+        synchronized (lessCompiler) {
+            awaitState(start(lessCompiler, input, compilers), Thread.State.BLOCKED);
+            Compiler waiting = start(lessCompiler, input, compilers);
+            // the compilation it waits for cannot finish while the compiler is held
+            waiting.join(5000);
+            assertTrue(waiting.failure instanceof CompilationAbortedException);
+            assertEquals(CompilationAbortedException.Reason.TIMEOUT, ((CompilationAbortedException) waiting.failure).getReason());
+        }
+        compilers.get(0).join();
+    }
+
+    @Test
+    public void testCompilationsWithDifferentBudgetsDoNotWait() throws Exception {
+        lessCompiler.setInstructionLimit(1000000);
+        LessCompiler unlimited = new LessCompiler();
+        unlimited.setCoalescing(true);
+        String input = "a { color: green; }";
+        List<Compiler> compilers = new ArrayList<Compiler>();
+        synchronized (lessCompiler) {
+            awaitState(start(lessCompiler, input, compilers), Thread.State.BLOCKED);
+            Compiler other = start(unlimited, input, compilers);
+            other.join(30000);
+            assertNull(other.failure);
+            assertEquals("a {\n  color: green;\n}\n\n", other.css);
+        }
+        compilers.get(0).join();
+    }
+
+    /**
+     * Holds the compiler, so the first compilation waits for it and the others wait for the first.
+     */
+    private List<Compiler> compileConcurrently(String input) throws Exception {
+        List<Compiler> compilers = new ArrayList<Compiler>();
+        synchronized (lessCompiler) {
+            Compiler first = start(lessCompiler, input, compilers);
+            awaitState(first, Thread.State.BLOCKED);
+            for (int i = 1; i < THREADS; i++) {
+                awaitState(start(lessCompiler, input, compilers), Thread.State.WAITING);
+            }
+        }
+        for (Compiler compiler : compilers) {
+            compiler.join();
+        }
+        return compilers;
+    }
+
+    private Compiler start(LessCompiler lessCompiler, String input, List<Compiler> compilers) {
+        Compiler compiler = new Compiler(lessCompiler, input);
+        compilers.add(compiler);
+        compiler.start();
+        return compiler;
+    }
+
+    private static void awaitState(Thread thread, Thread.State state) throws InterruptedException {
+        while (thread.getState() != state) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static class Compiler extends Thread {
+        private final LessCompiler lessCompiler;
+        private final String input;
+        private volatile String css;
+        private volatile Exception failure;
+
+        Compiler(LessCompiler lessCompiler, String input) {
+            this.lessCompiler = lessCompiler;
+            this.input = input;
+        }
+
+        @Override
+        public void run() {
+            try {
+                css = lessCompiler.compile(input);
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.lesscss.AsyncLessCompiler;
+import org.lesscss.CompilationAbortedException;
+import org.lesscss.LessCompiler;
+import org.lesscss.LessCompilerPool;
+
+public class CompilationBudgetIT extends AbstractCompileIT {
+
+    /** Calls the mixin 2^40 times. */
+    private static final String RUNAWAY = ".f(@n) when (@n > 0) { .f(@n - 1); .f(@n - 1); }\na { .f(40); }";
+    private static final String LESS = "@color: #4D926F; #header { color: @color; }";
+    private static final String CSS = "#header {\n  color: #4d926f;\n}\n\n";
+
+    @Test
+    public void testTimeout() throws Exception {
+        lessCompiler.setTimeout(500);
+        assertAborted(CompilationAbortedException.Reason.TIMEOUT);
+        assertEquals(CSS, lessCompiler.compile(LESS));
+    }
+
+    @Test
+    public void testTimeoutInSharedScope() throws Exception {
+        lessCompiler.setSharedScope(true);
+        lessCompiler.setTimeout(500);
+        assertAborted(CompilationAbortedException.Reason.TIMEOUT);
+        assertEquals(CSS, lessCompiler.compile(LESS));
+    }
+
+    @Test
+    public void testInstructionLimit() throws Exception {
+        lessCompiler.setInstructionLimit(1000000);
+        assertEquals(CSS, lessCompiler.compile(LESS));
+        assertAborted(CompilationAbortedException.Reason.INSTRUCTION_LIMIT);
+        assertEquals(CSS, lessCompiler.compile(LESS));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        AsyncLessCompiler asyncCompiler = new AsyncLessCompiler(new LessCompiler());
+        asyncCompiler.setThreads(1);
+        try {
+            Future<String> runaway = asyncCompiler.compileAsync(RUNAWAY);
+            while (asyncCompiler.getActiveCount() == 0) {
+                Thread.sleep(5);
+            }
+            assertTrue(runaway.cancel(true));
+
+            // the only thread is free again
+            assertEquals(CSS, asyncCompiler.compileAsync(LESS).get(60, TimeUnit.SECONDS));
+        } finally {
+            asyncCompiler.shutdown();
+        }
+    }
+
+    @Test
+    public void testInterruptWhileWaitingForPooledCompiler() throws Exception {
+        LessCompilerPool pool = new LessCompilerPool(lessCompiler);
+        pool.setMinSize(0);
+        pool.setGrowthThreshold(60000);
+        Thread.currentThread().interrupt();
+        try {
+            pool.compile(LESS);
+            fail("Expected a CompilationAbortedException");
+        } catch (CompilationAbortedException e) {
+            assertEquals(CompilationAbortedException.Reason.CANCELLED, e.getReason());
+            assertTrue(Thread.interrupted());
+        } finally {
+            Thread.interrupted();
+            pool.close();
+        }
+    }
+
+    private void assertAborted(CompilationAbortedException.Reason reason) throws Exception {
+        try {
+            lessCompiler.compile(RUNAWAY);
+            fail("Expected a CompilationAbortedException");
+        } catch (CompilationAbortedException e) {
+            assertEquals(reason, e.getReason());
+        }
+    }
+}
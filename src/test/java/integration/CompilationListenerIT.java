@@ -0,0 +1,134 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lesscss.CompilationEvent;
+import org.lesscss.CompilationListener;
+import org.lesscss.CompilationMetrics;
+import org.lesscss.LessCompilerPool;
+import org.lesscss.LessException;
+
+public class CompilationListenerIT extends AbstractCompileIT {
+
+    private final List<CompilationEvent> events = new ArrayList<CompilationEvent>();
+
+    @Before
+    public void addListener() {
+        lessCompiler.addCompilationListener(new CompilationListener() {
+            public synchronized void compilationFinished(CompilationEvent event) {
+                events.add(event);
+            }
+        });
+    }
+
+    @Test
+    public void testCompilationEvent() throws Exception {
+        File input = toFile("import/less/import.less");
+        String css = lessCompiler.compile(input);
+
+        assertEquals(1, events.size());
+        CompilationEvent event = events.get(0);
+        assertTrue(event.isSuccessful());
+        assertEquals(input.getAbsolutePath(), event.getName());
+        assertEquals(input.length(), event.getInputLength());
+        assertEquals(css.length(), event.getOutputLength());
+        assertTrue(event.getImportCount() > 0);
+        assertTrue(event.getImportLength() > 0);
+        assertTrue(event.getInitTime() > 0);
+        assertTrue(event.getParseTime() > 0);
+        assertTrue(event.getEvalTime() > 0);
+        assertTrue(event.getToCssTime() > 0);
+        assertTrue(event.getTotalTime() >= event.getInitTime() + event.getParseTime() + event.getEvalTime() + event.getToCssTime());
+
+        lessCompiler.compile(input);
+        assertEquals(0, events.get(1).getInitTime());
+    }
+
+    @Test
+    public void testStreamedCompilationEvent() throws Exception {
+        lessCompiler.setSharedScope(true);
+        StringWriter writer = new StringWriter();
+        lessCompiler.compile("@color: #4D926F; #header { color: @color; }", "header.less", writer);
+
+        CompilationEvent event = events.get(0);
+        assertEquals("header.less", event.getName());
+        assertEquals(writer.toString().length(), event.getOutputLength());
+        assertEquals(0, event.getWaitTime());
+    }
+
+    @Test
+    public void testFailedCompilationEvent() throws Exception {
+        try {
+            lessCompiler.compile(".a { color: @undefined; }");
+            fail("Expected LessException");
+        } catch (LessException e) {
+            CompilationEvent event = events.get(0);
+            assertEquals(e, event.getException());
+            assertEquals(0, event.getOutputLength());
+        }
+    }
+
+    @Test
+    public void testMetricsMBean() throws Exception {
+        CompilationMetrics metrics = new CompilationMetrics();
+        lessCompiler.addCompilationListener(metrics);
+        // compilers of the pool report to the listeners of the template
+        LessCompilerPool pool = new LessCompilerPool(lessCompiler);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.lesscss:type=LessCompiler,name=CompilationListenerIT");
+        server.registerMBean(metrics, name);
+        try {
+            lessCompiler.compile("@color: #4D926F; #header { color: @color; }");
+            try {
+                lessCompiler.compile(".a { color: @undefined; }");
+            } catch (LessException e) {
+                // expected
+            }
+            pool.compile("#header { color: #4D926F; }");
+
+            assertEquals(3L, server.getAttribute(name, "CompilationCount"));
+            assertEquals(1L, server.getAttribute(name, "FailureCount"));
+            long[] histogram = (long[]) server.getAttribute(name, "LatencyHistogram");
+            long total = 0;
+            for (long count : histogram) {
+                total += count;
+            }
+            assertEquals(3, total);
+            assertTrue((Double) server.getAttribute(name, "AverageTime") > 0);
+
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "CompilationCount"));
+        } finally {
+            server.unregisterMBean(name);
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CompileResultIT extends AbstractCompileIT {
+
+    private static final String LESS = ".a { color: deprecated(#ff0000); }";
+    private static final String CSS = ".a {\n  color: #ff0000;\n}\n\n";
+
+    @Test
+    public void testWarningsAreCollected() throws Exception {
+        lessCompiler.setCustomJs(toURL("warnings/custom.warn.js"));
+        List<String> warnings = new ArrayList<String>();
+        assertEquals(CSS, lessCompiler.compile(LESS, "warn.less", warnings));
+        assertEquals(Arrays.asList("#ff0000 is deprecated"), warnings);
+    }
+
+    @Test
+    public void testWarningsAreCollectedPerCompilationInSharedScope() throws Exception {
+        lessCompiler.setCustomJs(toURL("warnings/custom.warn.js"));
+        lessCompiler.setSharedScope(true);
+        for (int i = 0; i < 2; i++) {
+            List<String> warnings = new ArrayList<String>();
+            assertEquals(CSS, lessCompiler.compile(LESS, "warn.less", warnings));
+            assertEquals(Arrays.asList("#ff0000 is deprecated"), warnings);
+        }
+    }
+
+    @Test
+    public void testNonAsciiOutputDoesNotDependOnEncoding() throws Exception {
+        // the CSS is returned as a string, the encoding only applies to files and streams
+        lessCompiler.setEncoding("ISO-8859-1");
+        assertEquals(".sort::before {\n  content: '↓ é';\n}\n\n", lessCompiler.compile(".sort::before { content: '↓ é'; }"));
+    }
+}
@@ -0,0 +1,46 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class CompileStringIT extends AbstractCompileIT {
+
+    @Test
+    public void testCompileString() throws Exception {
+        assertEquals("#header {\n  color: #4d926f;\n}\n\n", lessCompiler.compile("@color: #4D926F; #header { color: @color; }"));
+    }
+
+    @Test
+    public void testCompileStringWithImports() throws Exception {
+        // imports are resolved relative to the name of the input
+        File lessFile = toFile("import/less/import.less");
+        String actual = lessCompiler.compile(FileUtils.readFileToString(lessFile, "UTF-8"), lessFile.getAbsolutePath());
+        String expected = FileUtils.readFileToString(toFile("import/css/import.css")).replace("\r\n", "\n") + "\n";
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testCompileStringSharedScope() throws Exception {
+        lessCompiler.setSharedScope(true);
+        testCompileString();
+        testCompileStringWithImports();
+    }
+}
@@ -0,0 +1,124 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lesscss.CompiledCssCache;
+import org.lesscss.LessCompiler;
+import org.lesscss.LessException;
+
+public class CompiledCssCacheIT extends AbstractCompileIT {
+
+    private static final String LESS = "@color: #4D926F; #header { color: @color; }";
+    private static final String CSS = "#header {\n  color: #4d926f;\n}\n\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CompiledCssCache cache;
+
+    @Before
+    public void setUpCache() {
+        cache = new CompiledCssCache(2);
+        lessCompiler.setCache(cache);
+    }
+
+    @Test
+    public void testCacheHit() throws Exception {
+        assertEquals(CSS, lessCompiler.compile(LESS));
+        assertEquals(CSS, lessCompiler.compile(LESS));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testConfigurationIsPartOfKey() throws Exception {
+        LessCompiler compressing = new LessCompiler();
+        compressing.setCompress(true);
+        compressing.setCache(cache);
+
+        assertEquals(CSS, lessCompiler.compile(LESS));
+        assertEquals("#header{color:#4d926f}\n", compressing.compile(LESS));
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testFailureIsCached() throws Exception {
+        LessException first = compileBroken();
+        LessException second = compileBroken();
+        assertEquals(first.getMessage(), second.getMessage());
+        assertSame(first.getCause(), second.getCause());
+        assertEquals(1, cache.getFailureHitCount());
+    }
+
+    @Test
+    public void testFailureExpires() throws Exception {
+        cache.setFailureTimeout(0);
+        compileBroken();
+        compileBroken();
+        assertEquals(0, cache.getFailureHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testChangedImportIsCompiledAgain() throws Exception {
+        File vars = folder.newFile("vars.less");
+        FileUtils.writeStringToFile(vars, "@color: #4D926F;", "UTF-8");
+        vars.setLastModified(1000000000000L);
+        String less = "@import \"" + vars.getAbsolutePath().replace('\\', '/') + "\"; #header { color: @color; }";
+
+        assertEquals(CSS, lessCompiler.compile(less));
+        assertEquals(CSS, lessCompiler.compile(less));
+        assertEquals(1, cache.getHitCount());
+
+        FileUtils.writeStringToFile(vars, "@color: #FF0000;", "UTF-8");
+        vars.setLastModified(1000000002000L);
+        assertEquals("#header {\n  color: #ff0000;\n}\n\n", lessCompiler.compile(less));
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        lessCompiler.compile(LESS);
+        lessCompiler.compile(".a { color: red; }");
+        lessCompiler.compile(".b { color: red; }");
+        assertEquals(2, cache.size());
+        lessCompiler.compile(LESS);
+        assertEquals(4, cache.getMissCount());
+    }
+
+    private LessException compileBroken() {
+        try {
+            lessCompiler.compile("#header { color: @undefined; }");
+            fail("Expected LessException");
+            return null;
+        } catch (LessException e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lesscss.FileResource;
+import org.lesscss.FileStatCache;
+import org.lesscss.LessSource;
+import org.lesscss.LessSourceFactory;
+
+public class FileStatCacheIT extends AbstractCompileIT {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileStatCache statCache;
+    private File main;
+    private File vars;
+
+    @Before
+    public void setUpFiles() throws Exception {
+        statCache = new FileStatCache(60000);
+        main = write("main.less", "@import \"vars\";\n.a { color: @color; }", 1000);
+        vars = write("vars.less", "@color: #ff0000;", 1000);
+    }
+
+    @Test
+    public void testLastModifiedIsCached() throws Exception {
+        LessSource source = new LessSource(new FileResource(main, statCache));
+        assertEquals(1000000, source.getLastModifiedIncludingImports());
+        long misses = statCache.getMissCount();
+        assertEquals(2, statCache.size());
+
+        for (int i = 0; i < 10; i++) {
+            source.getLastModifiedIncludingImports();
+        }
+        assertEquals(misses, statCache.getMissCount());
+        assertTrue(statCache.getHitCount() >= 20);
+
+        vars.setLastModified(2000000);
+        assertEquals(1000000, source.getLastModifiedIncludingImports());
+        statCache.invalidate(vars);
+        assertEquals(2000000, source.getLastModifiedIncludingImports());
+    }
+
+    @Test
+    public void testExpiredStatIsCheckedAgain() throws Exception {
+        FileStatCache shortLived = new FileStatCache(0);
+        FileResource resource = new FileResource(vars, shortLived);
+        assertEquals(1000000, resource.lastModified());
+        vars.setLastModified(2000000);
+        assertEquals(2000000, resource.lastModified());
+
+        assertTrue(resource.exists());
+        assertTrue(vars.delete());
+        assertFalse(resource.exists());
+    }
+
+    @Test
+    public void testFactoryValidatesThroughStatCache() throws Exception {
+        LessSourceFactory factory = new LessSourceFactory();
+        factory.setStatCache(statCache);
+        LessSource source = factory.getSource(main);
+        long misses = statCache.getMissCount();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(source, factory.getSource(main));
+        }
+        assertEquals(misses, statCache.getMissCount());
+        assertTrue(lessCompiler.compile(source).contains("#ff0000"));
+    }
+
+    private File write(String name, String content, long lastModified) throws Exception {
+        File file = new File(folder.getRoot(), name);
+        FileUtils.writeStringToFile(file, content);
+        file.setLastModified(lastModified * 1000);
+        return file;
+    }
+}
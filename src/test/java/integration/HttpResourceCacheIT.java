@@ -0,0 +1,285 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lesscss.HttpResource;
+import org.lesscss.HttpResourceCache;
+import org.lesscss.LessSource;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpResourceCacheIT extends AbstractCompileIT {
+
+    private static final String ROOT = "@import \"mixins.less\";\n.a { .mixin(); }\n";
+    private static final String MIXINS = ".mixin() { color: #4d926f; }\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private final Map<String, Document> documents = new ConcurrentHashMap<String, Document>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private HttpResourceCache cache;
+
+    @Before
+    public void startServer() throws Exception {
+        documents.put("/less/root.less", new Document(ROOT, "\"r1\""));
+        documents.put("/less/mixins.less", new Document(MIXINS, "\"m1\""));
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        server.start();
+        cache = new HttpResourceCache();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testOneRequestPerResource() throws Exception {
+        LessSource source = new LessSource(resource("/less/root.less"));
+        assertEquals(".mixin() { color: #4d926f; }\n\n.a { .mixin(); }\n", source.getNormalizedContent());
+        assertEquals(2, requests.get());
+        assertTrue(source.getLastModifiedIncludingImports() > 0);
+
+        new LessSource(resource("/less/root.less"));
+        assertEquals(2, requests.get());
+        assertEquals(2, cache.getRequestCount());
+        assertTrue(cache.getHitCount() > 0);
+    }
+
+    @Test
+    public void testRevalidate() throws Exception {
+        cache.setTimeToLive(0);
+        new LessSource(resource("/less/root.less"));
+        int fetched = requests.get();
+        int unchanged = notModified.get();
+
+        // every request is conditional and answered with 304 Not Modified
+        LessSource source = new LessSource(resource("/less/root.less"));
+        assertTrue(requests.get() > fetched);
+        assertEquals(requests.get() - fetched, notModified.get() - unchanged);
+        assertEquals(notModified.get(), cache.getNotModifiedCount());
+        assertTrue(source.getNormalizedContent().contains("#4d926f"));
+
+        documents.put("/less/mixins.less", new Document(".mixin() { color: #ff0000; }\n", "\"m2\""));
+        source = new LessSource(resource("/less/root.less"));
+        assertTrue(source.getNormalizedContent().contains("#ff0000"));
+    }
+
+    @Test
+    public void testCachedCopyIsUsedWhenServerFails() throws Exception {
+        cache.setTimeToLive(0);
+        cache.setReadTimeout(200);
+        new LessSource(resource("/less/root.less"));
+
+        documents.get("/less/root.less").status = 500;
+        documents.get("/less/mixins.less").delay = 2000;
+        LessSource source = new LessSource(resource("/less/root.less"));
+        assertTrue(source.getNormalizedContent().contains("#4d926f"));
+        assertTrue(cache.getStaleCount() > 0);
+    }
+
+    @Test
+    public void testConcurrentReadsShareOneRequest() throws Exception {
+        documents.get("/less/mixins.less").delay = 500;
+        final URI mixins = uri("/less/mixins.less");
+        final AtomicInteger found = new AtomicInteger();
+        Thread[] threads = new Thread[5];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    if (new HttpResource(mixins, cache).exists()) {
+                        found.incrementAndGet();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threads.length, found.get());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testNotFound() throws Exception {
+        HttpResource missing = resource("/less/missing.less");
+        assertFalse(missing.exists());
+        assertEquals(0, missing.lastModified());
+    }
+
+    @Test
+    public void testDiskCache() throws Exception {
+        HttpResourceCache disk = new HttpResourceCache(1024, folder.getRoot(), 1024 * 1024);
+        disk.setTimeToLive(60000);
+        new LessSource(new HttpResource(uri("/less/root.less"), disk));
+        assertEquals(2, requests.get());
+
+        // a new cache on the same directory, e.g. after a restart
+        HttpResourceCache restarted = new HttpResourceCache(1024, folder.getRoot(), 1024 * 1024);
+        LessSource source = new LessSource(new HttpResource(uri("/less/root.less"), restarted));
+        assertTrue(source.getNormalizedContent().contains("#4d926f"));
+        assertEquals(2, requests.get());
+
+        restarted.clear();
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testNotModifiedOnlyUpdatesMetadataOnDisk() throws Exception {
+        HttpResourceCache disk = new HttpResourceCache(1024, folder.getRoot(), 1024 * 1024);
+        disk.setTimeToLive(0);
+        new HttpResource(uri("/less/mixins.less"), disk).getInputStream().close();
+        File body = folder.getRoot().listFiles((FilenameFilter) new SuffixFileFilter(".body"))[0];
+        File properties = new File(body.getPath().replaceFirst("\\.body$", ".properties"));
+        // changing the body on disk shows whether it is written again
+        FileUtils.writeStringToFile(body, "tampered", "UTF-8");
+        String expires = expires(properties);
+
+        Thread.sleep(10);
+        new HttpResource(uri("/less/mixins.less"), disk).getInputStream().close();
+        assertEquals(1, disk.getNotModifiedCount());
+        assertEquals("tampered", FileUtils.readFileToString(body, "UTF-8"));
+        assertFalse(expires.equals(expires(properties)));
+    }
+
+    @Test
+    public void testNoStoreIsFetchedOncePerRead() throws Exception {
+        documents.get("/less/mixins.less").cacheControl = "no-store";
+        HttpResource mixins = resource("/less/mixins.less");
+        assertTrue(mixins.exists());
+        assertTrue(mixins.lastModified() > 0);
+        assertEquals(MIXINS, IOUtils.toString(mixins.getInputStream(), "UTF-8"));
+        assertEquals(1, requests.get());
+
+        new LessSource(resource("/less/mixins.less"));
+        assertEquals(2, requests.get());
+        assertEquals(0, notModified.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testCompileHttpImport() throws Exception {
+        String css = lessCompiler.compile("@import \"" + uri("/less/mixins.less") + "\";\n.b { .mixin(); }");
+        assertEquals(".b {\n  color: #4d926f;\n}\n\n", css);
+    }
+
+    private static String expires(File properties) throws IOException {
+        Properties loaded = new Properties();
+        InputStream in = new FileInputStream(properties);
+        try {
+            loaded.load(in);
+        } finally {
+            in.close();
+        }
+        return loaded.getProperty("expires");
+    }
+
+    private HttpResource resource(String path) throws Exception {
+        return new HttpResource(uri(path), cache);
+    }
+
+    private URI uri(String path) throws Exception {
+        return new URI("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            Document document = documents.get(exchange.getRequestURI().getPath());
+            if (document == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (document.delay > 0) {
+                try {
+                    Thread.sleep(document.delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (document.status != 200) {
+                exchange.sendResponseHeaders(document.status, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("ETag", document.etag);
+            if (document.cacheControl != null) {
+                exchange.getResponseHeaders().set("Cache-Control", document.cacheControl);
+            }
+            exchange.getResponseHeaders().set("Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT");
+            if (document.etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            byte[] body = document.body.getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static class Document {
+        private final String body;
+        private final String etag;
+        private volatile int status = 200;
+        private volatile long delay = 0;
+        private volatile String cacheControl;
+
+        Document(String body, String etag) {
+            this.body = body;
+            this.etag = etag;
+        }
+    }
+}
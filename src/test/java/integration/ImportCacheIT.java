@@ -0,0 +1,89 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lesscss.ContentCache;
+import org.lesscss.LessException;
+
+public class ImportCacheIT extends AbstractCompileIT {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testModifiedImportIsReadAgain() throws Exception {
+        File input = write("main.less", "@import \"sub/a.less\";");
+        File imported = write("sub/a.less", "@import \"b.less\"; .a { color: red; }");
+        File nested = write("sub/b.less", ".b { color: red; }");
+
+        String css = lessCompiler.compile(input);
+        assertTrue(css, css.contains(".a {\n  color: red;\n}"));
+        assertTrue(css, css.contains(".b {\n  color: red;\n}"));
+
+        FileUtils.writeStringToFile(nested, ".b { color: blue; }", "UTF-8");
+        nested.setLastModified(imported.lastModified() + 2000);
+
+        css = lessCompiler.compile(input);
+        assertTrue(css, css.contains(".a {\n  color: red;\n}"));
+        assertTrue(css, css.contains(".b {\n  color: blue;\n}"));
+    }
+
+    @Test
+    public void testModifiedImportIsReadAgainSharedScope() throws Exception {
+        lessCompiler.setSharedScope(true);
+        testModifiedImportIsReadAgain();
+    }
+
+    @Test
+    public void testContentCacheOfCompiler() throws Exception {
+        ContentCache contentCache = new ContentCache(100);
+        lessCompiler.setContentCache(contentCache);
+        File input = write("main.less", "@import \"a.less\"; @import \"b.less\";");
+        write("a.less", ".a { color: red; }");
+        write("b.less", "// " + StringUtils.repeat("b", 100) + "\n.b { color: red; }");
+
+        String css = lessCompiler.compile(input);
+        assertTrue(css, css.contains(".b {\n  color: red;\n}"));
+        // b.less is larger than the cache
+        assertEquals(".a { color: red; }".length(), contentCache.size());
+    }
+
+    @Test
+    public void testWithoutContentCache() throws Exception {
+        lessCompiler.setContentCache(null);
+        testModifiedImportIsReadAgain();
+    }
+
+    @Test(expected = LessException.class)
+    public void testMissingImport() throws Exception {
+        lessCompiler.compile(write("main.less", "@import \"missing.less\";"));
+    }
+
+    private File write(String name, String content) throws Exception {
+        File file = new File(folder.getRoot(), name);
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+        return file;
+    }
+}
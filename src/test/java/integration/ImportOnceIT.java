@@ -0,0 +1,88 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lesscss.LessSource;
+import org.lesscss.LessSourceFactory;
+
+public class ImportOnceIT extends AbstractCompileIT {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSameFileImportedByDifferentPaths() throws Exception {
+        File root = write("root.less", "@import \"a/a.less\";\n@import \"b/b.less\";\n.root { .m(); }\n");
+        write("a/a.less", "@import \"../shared/mixins.less\";\n.a { color: red; }\n");
+        write("b/b.less", "@import \"../shared/mixins.less\";\n@import \"../a/a.less\";\n@import \"./../shared/mixins\";\n.b { color: blue; }\n");
+        write("shared/mixins.less", ".m() { margin: 0; }\n");
+
+        LessSource source = new LessSource(root);
+        String content = source.getNormalizedContent();
+        assertEquals(1, count(content, ".m() {"));
+        assertEquals(1, count(content, ".a {"));
+        assertEquals(".a {\n  color: red;\n}\n.b {\n  color: blue;\n}\n.root {\n  margin: 0;\n}\n\n", lessCompiler.compile(source));
+    }
+
+    @Test
+    public void testCircularImport() throws Exception {
+        File x = write("x.less", "@import \"y.less\";\n.x { color: red; }\n");
+        write("y.less", "@import \"x.less\";\n.y { color: blue; }\n");
+
+        LessSource source = new LessSource(x);
+        assertEquals(1, source.getImports().size());
+        LessSource y = source.getImports().values().iterator().next();
+        assertTrue(y.getImports().isEmpty());
+        assertEquals("\n.y { color: blue; }\n\n.x { color: red; }\n", source.getNormalizedContent());
+        assertEquals(".y {\n  color: blue;\n}\n.x {\n  color: red;\n}\n\n", lessCompiler.compile(source));
+    }
+
+    @Test
+    public void testCircularImportIsNotCached() throws Exception {
+        File x = write("x.less", "@import \"y.less\";\n.x { color: red; }\n");
+        File y = write("y.less", "@import \"x.less\";\n.y { color: blue; }\n");
+
+        LessSourceFactory factory = new LessSourceFactory();
+        LessSource first = factory.getSource(x);
+        LessSource fromY = factory.getSource(y);
+        assertEquals(1, fromY.getImports().size());
+        assertTrue(fromY.getNormalizedContent().indexOf(".x") < fromY.getNormalizedContent().indexOf(".y"));
+        assertNotSame(first, factory.getSource(x));
+    }
+
+    private File write(String path, String content) throws Exception {
+        File file = new File(folder.getRoot(), path);
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+        return file;
+    }
+
+    private static int count(String content, String part) {
+        int count = 0;
+        for (int i = content.indexOf(part); i >= 0; i = content.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
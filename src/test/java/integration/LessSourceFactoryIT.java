@@ -0,0 +1,241 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lesscss.LessSource;
+import org.lesscss.LessSourceFactory;
+import org.lesscss.Resource;
+
+public class LessSourceFactoryIT extends AbstractCompileIT {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LessSourceFactory factory;
+    private File variables;
+    private File a;
+    private File b;
+
+    @Before
+    public void setUpFiles() throws Exception {
+        factory = new LessSourceFactory();
+        variables = write("variables.less", "@color: #4d926f;", 1000);
+        write("mixins.less", "@import \"variables\";\n.mixin() { color: @color; }", 1000);
+        a = write("a.less", "@import \"mixins\";\n.a { .mixin(); }", 1000);
+        b = write("b.less", "@import \"mixins\";\n@import \"variables\";\n.b { .mixin(); }", 1000);
+    }
+
+    @Test
+    public void testImportsAreShared() throws Exception {
+        LessSource sourceA = factory.getSource(a);
+        LessSource sourceB = factory.getSource(b);
+
+        assertSame(sourceA.getImports().get("mixins.less"), sourceB.getImports().get("mixins.less"));
+        assertSame(sourceB.getImports().get("variables.less"), sourceB.getImports().get("mixins.less").getImports().get("variables.less"));
+        assertEquals(4, factory.getMissCount());
+        assertEquals(4, factory.size());
+
+        assertSame(sourceA, factory.getSource(a));
+        assertSame(sourceA, factory.getSource(new File(folder.getRoot(), "./a.less")));
+        assertEquals(".a {\n  color: #4d926f;\n}\n\n", lessCompiler.compile(sourceA));
+    }
+
+    @Test
+    public void testModifiedImportIsReadAgain() throws Exception {
+        LessSource sourceA = factory.getSource(a);
+        LessSource sourceB = factory.getSource(b);
+        long misses = factory.getMissCount();
+
+        write("variables.less", "@color: #ff0000;", 2000);
+
+        LessSource modifiedA = factory.getSource(a);
+        assertNotSame(sourceA, modifiedA);
+        assertEquals(".a {\n  color: #ff0000;\n}\n\n", lessCompiler.compile(modifiedA));
+        // variables, mixins and a were read again
+        assertEquals(misses + 3, factory.getMissCount());
+
+        LessSource modifiedB = factory.getSource(b);
+        assertNotSame(sourceB, modifiedB);
+        assertSame(modifiedA.getImports().get("mixins.less"), modifiedB.getImports().get("mixins.less"));
+        assertEquals(misses + 4, factory.getMissCount());
+    }
+
+    @Test
+    public void testSharedImportIsValidatedOnce() throws Exception {
+        LessSource sourceB = factory.getSource(b);
+        long hits = factory.getHitCount();
+
+        assertSame(sourceB, factory.getSource(b));
+        // b, mixins and variables, which both b and mixins import
+        assertEquals(hits + 3, factory.getHitCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedSourcesAreEvicted() throws Exception {
+        LessSourceFactory small = new LessSourceFactory(Charset.forName("UTF-8"), 2);
+        small.getSource(variables);
+        small.getSource(a);
+        assertEquals(2, small.size());
+        assertEquals(3, small.getMissCount());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImportsAreUnmodifiable() throws Exception {
+        factory.getSource(a).getImports().clear();
+    }
+
+    @Test
+    public void testReleasedContent() throws Exception {
+        factory.setContentRetained(false);
+        LessSource released = factory.getSource(b);
+        assertEquals(1000000, released.getLastModifiedIncludingImports());
+        assertEquals(Arrays.asList("mixins.less", "variables.less"), new ArrayList<String>(released.getImports().keySet()));
+        try {
+            released.getNormalizedContent();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        factory.setContentRetained(true);
+        LessSource retained = factory.getSource(b);
+        assertNotSame(released, retained);
+        assertEquals(".b {\n  color: #4d926f;\n}\n\n", lessCompiler.compile(retained));
+    }
+
+    @Test
+    public void testImportsAreReadConcurrently() throws Exception {
+        final Map<String, String> files = new HashMap<String, String>();
+        files.put("root.less", "@import \"a\";\n@import \"b\";\n@import \"a\";\n@import \"c\" print;\n.root { color: @a; }\n");
+        files.put("a.less", "@a: #aaaaaa;\n");
+        files.put("b.less", "@b: #bbbbbb;\n");
+        files.put("c.less", "@import \"a\";\n.c { color: @a; }\n");
+        String expected = new LessSource(new MemoryResource(files, "root.less", null)).getNormalizedContent();
+
+        // a, b and c are only read once all three are being read
+        CountDownLatch latch = new CountDownLatch(3);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            factory.setExecutor(executor);
+            LessSource source = factory.getSource(new MemoryResource(files, "root.less", latch));
+            assertEquals(expected, source.getNormalizedContent());
+            assertEquals(Arrays.asList("a.less", "b.less", "c.less"), new ArrayList<String>(source.getImports().keySet()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFirstFailingImportIsReported() throws Exception {
+        Map<String, String> files = new HashMap<String, String>();
+        files.put("root.less", "@import \"a\";\n@import \"missing1\";\n@import \"missing2\";\n");
+        files.put("a.less", "@a: #aaaaaa;\n");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            factory.setExecutor(executor);
+            factory.getSource(new MemoryResource(files, "root.less", null));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("missing1.less"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private File write(String name, String content, long lastModified) throws Exception {
+        File file = new File(folder.getRoot(), name);
+        FileUtils.writeStringToFile(file, content);
+        file.setLastModified(lastModified * 1000);
+        return file;
+    }
+
+    /**
+     * A resource in a map of file names to content, which waits until all reads of imports guarded by the
+     * latch have started before it is read.
+     */
+    private static class MemoryResource implements Resource {
+
+        private final Map<String, String> files;
+        private final String name;
+        private final CountDownLatch latch;
+
+        MemoryResource(Map<String, String> files, String name, CountDownLatch latch) {
+            this.files = files;
+            this.name = name;
+            this.latch = latch;
+        }
+
+        public boolean exists() {
+            return files.containsKey(name);
+        }
+
+        public long lastModified() {
+            return 1000;
+        }
+
+        public InputStream getInputStream() throws IOException {
+            if (latch != null && !name.equals("root.less")) {
+                latch.countDown();
+                try {
+                    if (!latch.await(10, TimeUnit.SECONDS)) {
+                        throw new IOException("Imports are not read concurrently");
+                    }
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            return new ByteArrayInputStream(files.get(name).getBytes("UTF-8"));
+        }
+
+        public Resource createRelative(String relativeResourcePath) {
+            return new MemoryResource(files, relativeResourcePath, latch);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
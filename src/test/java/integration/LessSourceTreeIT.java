@@ -0,0 +1,63 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lesscss.LessException;
+import org.lesscss.LessSource;
+
+public class LessSourceTreeIT extends AbstractCompileIT {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testImportsAreNotReadAgain() throws Exception {
+        File root = write("root.less", "@import \"lib/vars.less\";\n.a { color: @color; }\n");
+        File vars = write("lib/vars.less", "@color: #4d926f;\n");
+        LessSource source = new LessSource(root);
+
+        // the compiler uses the content the source has loaded
+        assertTrue(vars.delete());
+        assertEquals(".a {\n  color: #4d926f;\n}\n\n", lessCompiler.compile(source));
+    }
+
+    @Test
+    public void testErrorPointsAtImportedFile() throws Exception {
+        File root = write("root.less", "@import \"lib/base.less\";\n.a { color: red; }\n");
+        File base = write("lib/base.less", ".b {\n  color: @undefined;\n}\n");
+        try {
+            lessCompiler.compile(new LessSource(root));
+            fail("Expected a LessException");
+        } catch (LessException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(" in " + base.getCanonicalPath() + " on line 2,"));
+        }
+    }
+
+    private File write(String path, String content) throws Exception {
+        File file = new File(folder.getRoot(), path);
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+        return file;
+    }
+}
@@ -0,0 +1,162 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lesscss.FileResource;
+import org.lesscss.FileStatCache;
+import org.lesscss.LessSource;
+import org.lesscss.LessWatcher;
+
+public class LessWatcherIT extends AbstractCompileIT {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File sourceDirectory;
+    private File outputDirectory;
+    private LessWatcher watcher;
+
+    private File main;
+    private File vars;
+    private File other;
+
+    @Before
+    public void setUpWatcher() throws Exception {
+        sourceDirectory = folder.newFolder("less").getCanonicalFile();
+        outputDirectory = folder.newFolder("css").getCanonicalFile();
+        main = write("main.less", "@import \"lib/_vars.less\"; .a { color: @color; }");
+        vars = write("lib/_vars.less", "@color: #ff0000;");
+        other = write("other.less", ".b { color: #0000ff; }");
+
+        watcher = new LessWatcher(lessCompiler, sourceDirectory, outputDirectory);
+        watcher.setPollInterval(50);
+        watcher.start();
+    }
+
+    @After
+    public void tearDownWatcher() {
+        watcher.stop();
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        assertEquals(new HashSet<File>(Arrays.asList(main, other)), watcher.getRootFiles());
+        assertEquals(new HashSet<File>(Arrays.asList(main)), watcher.getAffectedRootFiles(vars));
+        assertEquals(new HashSet<File>(Arrays.asList(other)), watcher.getAffectedRootFiles(other));
+    }
+
+    @Test
+    public void testStartCompilesRoots() throws Exception {
+        assertTrue(read("main.css").contains("color: #ff0000"));
+        assertTrue(read("other.css").contains("color: #0000ff"));
+        assertTrue(!new File(outputDirectory, "lib/_vars.css").exists());
+    }
+
+    @Test
+    public void testChangedImportCompilesAffectedRoots() throws Exception {
+        File otherCss = new File(outputDirectory, "other.css");
+        otherCss.setLastModified(otherCss.lastModified() - 10000);
+        long otherLastModified = otherCss.lastModified();
+
+        FileUtils.writeStringToFile(vars, "@color: #008000;", "UTF-8");
+        vars.setLastModified(vars.lastModified() + 2000);
+
+        waitFor("main.css", "color: #008000");
+        assertEquals(otherLastModified, otherCss.lastModified());
+    }
+
+    @Test
+    public void testNewImport() throws Exception {
+        write("lib/_more.less", ".c { color: #000000; }");
+        FileUtils.writeStringToFile(other, "@import \"lib/_more.less\"; .b { color: #0000ff; }", "UTF-8");
+        other.setLastModified(other.lastModified() + 2000);
+
+        waitFor("other.css", "color: #000000");
+        assertEquals(new HashSet<File>(Arrays.asList(main, other)), watcher.getRootFiles());
+    }
+
+    @Test
+    public void testChangeInvalidatesStatCache() throws Exception {
+        FileStatCache statCache = new FileStatCache(60000);
+        watcher.setStatCache(statCache);
+        LessSource source = new LessSource(new FileResource(main, statCache));
+        long lastModified = source.getLastModifiedIncludingImports();
+
+        FileUtils.writeStringToFile(vars, "@color: #008000;", "UTF-8");
+        vars.setLastModified(lastModified + 2000);
+
+        long timeout = System.currentTimeMillis() + 10000;
+        while (source.getLastModifiedIncludingImports() != lastModified + 2000) {
+            if (System.currentTimeMillis() > timeout) {
+                throw new AssertionError("The stat cache was not invalidated");
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void testChangeInvalidatesStatCacheOfParentImport() throws Exception {
+        FileStatCache statCache = new FileStatCache(60000);
+        watcher.setStatCache(statCache);
+        // the import resolves to less/pages/../lib/_vars.less, the watcher sees less/lib/_vars.less change
+        File page = write("pages/page.less", "@import \"../lib/_vars.less\"; .p { color: @color; }");
+        LessSource source = new LessSource(new FileResource(page, statCache));
+        long lastModified = source.getLastModifiedIncludingImports();
+
+        FileUtils.writeStringToFile(vars, "@color: #008000;", "UTF-8");
+        vars.setLastModified(lastModified + 2000);
+
+        long timeout = System.currentTimeMillis() + 10000;
+        while (source.getLastModifiedIncludingImports() != lastModified + 2000) {
+            if (System.currentTimeMillis() > timeout) {
+                throw new AssertionError("The stat cache was not invalidated");
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private void waitFor(String name, String content) throws Exception {
+        long timeout = System.currentTimeMillis() + 10000;
+        while (!read(name).contains(content)) {
+            if (System.currentTimeMillis() > timeout) {
+                throw new AssertionError(name + " was not compiled: " + read(name));
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private String read(String name) throws Exception {
+        return FileUtils.readFileToString(new File(outputDirectory, name), "UTF-8");
+    }
+
+    private File write(String name, String content) throws Exception {
+        File file = new File(sourceDirectory, name);
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+        return file;
+    }
+}
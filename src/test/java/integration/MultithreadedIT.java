@@ -1,15 +1,21 @@
 package integration;
 
+import static org.junit.Assert.assertTrue;
+
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.apache.commons.io.FileUtils;
 import org.jodah.concurrentunit.Waiter;
 import org.junit.Before;
 import org.junit.Test;
+import org.lesscss.LessCompilerPool;
 
 public class MultithreadedIT extends AbstractCompileIT {
 	final Waiter waiter = new Waiter();
+	private LessCompilerPool pool;
 
     @Before
     public void setUp() throws Exception {
@@ -22,6 +28,29 @@ public class MultithreadedIT extends AbstractCompileIT {
     
 	@Test
 	public void testMultithreaded() throws Throwable {
+		compileConcurrently();
+	}
+
+	@Test
+	public void testMultithreadedPool() throws Throwable {
+		pool = new LessCompilerPool(lessCompiler);
+		pool.setMaxSize(Math.max(2, Runtime.getRuntime().availableProcessors()));
+		pool.setGrowthThreshold(0);
+		try {
+			compileConcurrently();
+			assertTrue(pool.getSize() > 1);
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testMultithreadedSharedScope() throws Throwable {
+		lessCompiler.setSharedScope(true);
+		compileConcurrently();
+	}
+
+	private void compileConcurrently() throws Throwable {
     	final String[] filenames = new String[]{
     			"colors",
     			"comments",
@@ -40,9 +69,10 @@ public class MultithreadedIT extends AbstractCompileIT {
     			"mixins-guards"
     	};
     	final int ITERATIONS = 5;
+    	List<Thread> threads = new ArrayList<Thread>();
 		for(int i=0;i<ITERATIONS;i++){
 			for(final String filename : filenames){
-				new Thread(new Runnable() {
+				Thread thread = new Thread(new Runnable() {
 					public void run() {
 						try{
 							testCompile(filename);
@@ -52,10 +82,24 @@ public class MultithreadedIT extends AbstractCompileIT {
 						}
 					}
 	
-				}).start();
+				});
+				threads.add(thread);
+				thread.start();
 			}
 		}
 		waiter.await(60*1000, ITERATIONS * filenames.length);
+		
+		// the waiter interrupts this thread on every resume, don't leave a late interrupt to the next test
+		for (Thread thread : threads) {
+			while (thread.isAlive()) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					// expected
+				}
+			}
+		}
+		Thread.interrupted();
 	}
 	
 	private void testCompile(String filename) throws Exception {
@@ -64,7 +108,7 @@ public class MultithreadedIT extends AbstractCompileIT {
 	
 	protected void testCompile(File lessFile, File cssFile) throws Exception {
 		String expected = FileUtils.readFileToString(cssFile);
-		String actual = lessCompiler.compile(lessFile);
+		String actual = pool != null ? pool.compile(lessFile) : lessCompiler.compile(lessFile);
 		expected = expected.replace("\r\n", "\n");
 		expected += "\n";
 		waiter.assertEquals(expected, actual);
@@ -0,0 +1,46 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the bootstrap tests against a compiler using a shared scope, where later compilations reuse the parsed
+ * trees of the bootstrap imports.
+ */
+public class SharedScopeBootstrapIT extends BootstrapIT {
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        lessCompiler.setSharedScope(true);
+    }
+
+    @Test
+    public void testBootstrapTwice() throws Exception {
+        long start = System.currentTimeMillis();
+        testBootstrap();
+        long first = System.currentTimeMillis() - start;
+
+        // a new compiler on the same shared scope
+        setUp();
+        start = System.currentTimeMillis();
+        testBootstrap();
+        long second = System.currentTimeMillis() - start;
+
+        System.out.println("Bootstrap with a shared scope: " + first + " ms, again " + second + " ms");
+    }
+}
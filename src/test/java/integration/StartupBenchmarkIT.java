@@ -0,0 +1,79 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.net.URL;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.lesscss.LessCompiler;
+
+/**
+ * Compares the startup time of compilers using the precompiled bundled JavaScript with compilers
+ * that parse the same JavaScript from source.
+ */
+public class StartupBenchmarkIT extends AbstractCompileIT {
+
+    private static final int ITERATIONS = 5;
+
+    private static final String LESS = "@color: #4D926F; #header { color: @color; }";
+
+    @Test
+    public void testStartup() throws Exception {
+        // copies of the bundled JavaScript are not recognized as bundled, so they are parsed
+        URL lessJs = copy("META-INF/less-rhino-1.7.0.js");
+        URL lesscJs = copy("META-INF/lessc-rhino-1.7.0.js");
+
+        // warm up the JVM before measuring
+        startup(null, null);
+        startup(lessJs, lesscJs);
+
+        long precompiled = 0;
+        long parsed = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            String expected = startup(null, null);
+            precompiled += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            String actual = startup(lessJs, lesscJs);
+            parsed += System.nanoTime() - start;
+
+            assertEquals(expected, actual);
+        }
+
+        System.out.printf("Startup with precompiled JavaScript: %,d ms, parsed JavaScript: %,d ms (average of %d)%n",
+                precompiled / ITERATIONS / 1000000, parsed / ITERATIONS / 1000000, ITERATIONS);
+    }
+
+    private String startup(URL lessJs, URL lesscJs) throws Exception {
+        LessCompiler compiler = new LessCompiler();
+        if (lessJs != null) {
+            compiler.setLessJs(lessJs);
+            compiler.setLesscJs(lesscJs);
+        }
+        return compiler.compile(LESS);
+    }
+
+    private URL copy(String resource) throws Exception {
+        File copy = File.createTempFile("startup", ".js");
+        copy.deleteOnExit();
+        FileUtils.copyURLToFile(toURL(resource), copy);
+        return copy.toURI().toURL();
+    }
+}
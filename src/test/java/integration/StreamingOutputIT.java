@@ -0,0 +1,128 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lesscss.LessException;
+import org.lesscss.LessSource;
+
+public class StreamingOutputIT extends AbstractCompileIT {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCompileToWriter() throws Exception {
+        File input = toFile("bootstrap-3.1.1/less/bootstrap.less");
+        StringWriter writer = new StringWriter();
+        lessCompiler.compile(input, writer);
+        assertEquals(expected("bootstrap"), writer.toString());
+    }
+
+    @Test
+    public void testCompileCompressedToWriter() throws Exception {
+        lessCompiler.setCompress(true);
+        File input = toFile("bootstrap-3.1.1/less/bootstrap.less");
+        StringWriter writer = new StringWriter();
+        lessCompiler.compile(new LessSource(input), writer);
+        assertEquals(expected("bootstrap.min"), writer.toString());
+    }
+
+    @Test
+    public void testCompileSharedToOutputStream() throws Exception {
+        lessCompiler.setSharedScope(true);
+        File input = toFile("bootstrap-3.1.1/less/bootstrap.less");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        lessCompiler.compile(input, out);
+        assertEquals(expected("bootstrap"), out.toString());
+    }
+
+    @Test
+    public void testCompileToChannel() throws Exception {
+        lessCompiler.setEncoding("UTF-8");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        lessCompiler.compile(new LessSource(toFile("compatibility/less/css.less")), Channels.newChannel(out));
+        assertEquals(FileUtils.readFileToString(toFile("compatibility/css/css.css")).replace("\r\n", "\n") + "\n", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testWriterExceptionIsRethrown() throws Exception {
+        final IOException failure = new IOException("Connection reset");
+        Writer writer = new Writer() {
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                throw failure;
+            }
+
+            public void flush() {
+            }
+
+            public void close() {
+            }
+        };
+        try {
+            lessCompiler.compile(toFile("bootstrap-3.1.1/less/bootstrap.less"), writer);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    @Test
+    public void testFailedCompilationKeepsOutputFile() throws Exception {
+        File input = folder.newFile("broken.less");
+        FileUtils.writeStringToFile(input, ".a { color: @undefined; }");
+        File output = new File(folder.getRoot(), "broken.css");
+        FileUtils.writeStringToFile(output, ".a { color: red; }");
+        try {
+            lessCompiler.compile(input, output);
+            fail("Expected LessException");
+        } catch (LessException e) {
+            // expected
+        }
+        assertEquals(".a { color: red; }", FileUtils.readFileToString(output));
+        assertEquals(2, folder.getRoot().list().length);
+
+        FileUtils.writeStringToFile(input, ".a { color: #0000ff; }");
+        lessCompiler.compile(input, output);
+        assertEquals(".a {\n  color: #0000ff;\n}\n\n", FileUtils.readFileToString(output));
+    }
+
+    @Test
+    public void testCompileToFileInNewDirectory() throws Exception {
+        File output = new File(folder.getRoot(), "css/nested/css.css");
+        lessCompiler.compile(toFile("compatibility/less/css.less"), output);
+        assertTrue(output.exists());
+        assertEquals(1, output.getParentFile().list().length);
+    }
+
+    private String expected(String name) throws IOException {
+        return FileUtils.readFileToString(toFile("bootstrap-3.1.1/css/" + name + ".css")).replace("\r\n", "\n") + "\n";
+    }
+}
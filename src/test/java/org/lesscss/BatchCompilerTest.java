@@ -0,0 +1,71 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeNoException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BatchCompilerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCssFile() {
+        File source = new File(folder.getRoot(), "less");
+        File output = new File(folder.getRoot(), "css");
+        assertEquals(new File(output, "x/a.css"), BatchCompiler.cssFile(new File(source, "x/a.less"), source, output));
+        assertEquals(new File(source, "x/a.css"), BatchCompiler.cssFile(new File(source, "x/a.less"), source, null));
+    }
+
+    @Test
+    public void testCssFileOfRelativeInput() {
+        File output = new File(folder.getRoot(), "css");
+        assertEquals(new File(output, "a.css"), BatchCompiler.cssFile(new File("./a.less"), new File("."), output));
+        assertEquals(new File(output, "x/a.css"), BatchCompiler.cssFile(new File("x/../x/a.less"), new File("."), output));
+    }
+
+    @Test
+    public void testCssFileThroughSymbolicLink() throws IOException {
+        File source = folder.newFolder("less");
+        File link = new File(folder.getRoot(), "link");
+        try {
+            Files.createSymbolicLink(link.toPath(), source.toPath());
+        } catch (UnsupportedOperationException e) {
+            assumeNoException(e);
+        } catch (IOException e) {
+            assumeNoException(e);
+        }
+        File output = new File(folder.getRoot(), "css");
+        assertEquals(new File(output, "x/a.css"), BatchCompiler.cssFile(new File(link, "x/a.less"), link, output));
+        assertEquals(new File(output, "x/a.css"), BatchCompiler.cssFile(new File(link, "x/a.less"), source, output));
+        assertEquals(new File(output, "x/a.css"), BatchCompiler.cssFile(new File(source, "x/a.less"), link, output));
+    }
+
+    @Test
+    public void testCssFileOutsideSourceDirectory() {
+        File source = new File(folder.getRoot(), "less");
+        File output = new File(folder.getRoot(), "css");
+        assertEquals(new File(output, "a.css"), BatchCompiler.cssFile(new File(folder.getRoot(), "other/a.less"), source, output));
+    }
+}
@@ -0,0 +1,30 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class CompileTest {
+
+    @Test
+    public void testParseThreads() {
+        assertEquals(4, Compile.parseThreads("4"));
+        assertEquals(0, Compile.parseThreads("abc"));
+        assertEquals(0, Compile.parseThreads(""));
+        assertEquals(-2, Compile.parseThreads("-2"));
+    }
+}
@@ -0,0 +1,84 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class ImportScannerTest {
+
+    @Test
+    public void testImports() {
+        String less = "@import \"a\";\n@import 'b.less' screen and (max-width: 600px);\n@import url(\"c.css\");\n.x { color: #fff; }\n";
+        List<ImportScanner.Import> imports = ImportScanner.scan(less);
+        assertEquals(3, imports.size());
+
+        assertEquals("a", imports.get(0).path);
+        assertEquals(0, imports.get(0).start);
+        assertEquals(12, imports.get(0).end);
+        assertEquals("", imports.get(0).media);
+        assertNull(imports.get(0).option);
+
+        assertEquals("b.less", imports.get(1).path);
+        assertEquals(" screen and (max-width: 600px)", imports.get(1).media);
+
+        assertEquals("c.css", imports.get(2).path);
+        assertEquals("@import url(\"c.css\");", less.substring(imports.get(2).start, imports.get(2).end));
+    }
+
+    @Test
+    public void testOptions() {
+        List<ImportScanner.Import> imports = ImportScanner.scan("@import (css) \"a.less\";\n@import (less) 'b.css';\n@import (reference) \"c\";");
+        assertEquals(2, imports.size());
+        assertEquals("css", imports.get(0).option);
+        assertEquals("less", imports.get(1).option);
+    }
+
+    @Test
+    public void testCommentedImportsAreSkipped() {
+        String less = "// @import \"a\";\n/* @import \"b\";\n@import \"c\"; */\n.x { color: #fff; } // @import \"d\";\n@import \"e\";";
+        List<ImportScanner.Import> imports = ImportScanner.scan(less);
+        assertEquals(1, imports.size());
+        assertEquals("e", imports.get(0).path);
+    }
+
+    @Test
+    public void testImportsInStringsAreSkipped() {
+        String less = ".x { content: \"@import 'a';\"; background: url(http://example.com/x.png); }\n@import \"b\";";
+        List<ImportScanner.Import> imports = ImportScanner.scan(less);
+        assertEquals(1, imports.size());
+        assertEquals("b", imports.get(0).path);
+    }
+
+    @Test
+    public void testImportsOnOneLine() {
+        List<ImportScanner.Import> imports = ImportScanner.scan("@import \"a\"; @import \"b\";@media screen { @import \"c\"; }");
+        assertEquals(3, imports.size());
+        assertEquals("a", imports.get(0).path);
+        assertEquals("b", imports.get(1).path);
+        assertEquals("c", imports.get(2).path);
+    }
+
+    @Test
+    public void testIncompleteImports() {
+        assertEquals(0, ImportScanner.scan("@import url(http://example.com/a.css);\n@import \"\";\n@import \"a\"\n.x { }").size());
+        assertEquals(0, ImportScanner.scan("@import \"a").size());
+        assertEquals(0, ImportScanner.scan("@import").size());
+    }
+}
@@ -15,13 +15,20 @@
 package org.lesscss;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.verifyNew;
-import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 import static org.powermock.api.mockito.PowerMockito.when;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
@@ -30,7 +37,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.SequenceInputStream;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.Arrays;
@@ -39,12 +45,18 @@ import java.util.List;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.reflect.FieldUtils;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.lesscss.logging.LessLogger;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.JavaScriptException;
 import org.mozilla.javascript.Script;
@@ -57,7 +69,7 @@ import org.lesscss.LessCompiler;
 import org.lesscss.LessException;
 import org.lesscss.LessSource;
 
-@PrepareForTest({Context.class, FileUtils.class, LessCompiler.class})
+@PrepareForTest({Context.class, FileUtils.class, LessCompiler.class, ScriptLoader.class})
 @RunWith(PowerMockRunner.class)
 public class LessCompilerTest {
 
@@ -67,6 +79,7 @@ public class LessCompilerTest {
     
     @Mock private LessLogger logger;
     
+    @Mock private ContextFactory contextFactory;
     @Mock private Context cx;
     @Mock private Global global;
     @Mock private Scriptable scope;
@@ -91,6 +104,9 @@ public class LessCompilerTest {
     @Mock private ScriptableObject compileScope;
     @Mock private ByteArrayOutputStream out;
     
+    // PowerMockRunner doesn't apply rules, so the folder is created and deleted around each test
+    private TemporaryFolder folder = new TemporaryFolder();
+    
     private String less = "less";
     private String css = "css";
     
@@ -102,6 +118,14 @@ public class LessCompilerTest {
         
         when(logger.isDebugEnabled()).thenReturn(false);
         FieldUtils.writeField(lessCompiler, "logger", logger, true);
+        FieldUtils.writeField(lessCompiler, "contextFactory", contextFactory, true);
+        
+        folder.create();
+    }
+    
+    @After
+    public void tearDown() {
+        folder.delete();
     }
     
     @Test
@@ -144,10 +168,46 @@ public class LessCompilerTest {
         assertEquals(customJsFile2, lessCompiler.getCustomJs().get(1));
     }    
     
+    @Test
+    public void testCopy() throws Exception {
+        URL customJsFile = new File("my-custom.js").toURI().toURL();
+        CompiledCssCache cache = new CompiledCssCache();
+        CompilationListener listener = new CompilationListener() {
+            public void compilationFinished(CompilationEvent event) {
+            }
+        };
+        lessCompiler = new LessCompiler(Arrays.asList("--strict-math=on"));
+        lessCompiler.setCustomJs(customJsFile);
+        lessCompiler.setCompress(true);
+        lessCompiler.setEncoding("utf-8");
+        lessCompiler.setSharedScope(true);
+        lessCompiler.setCache(cache);
+        lessCompiler.setContentCache(null);
+        lessCompiler.setCoalescing(true);
+        lessCompiler.setTimeout(1000);
+        lessCompiler.setInstructionLimit(100000);
+        lessCompiler.addCompilationListener(listener);
+
+        LessCompiler copy = lessCompiler.copy();
+        assertEquals(Arrays.asList("--strict-math=on"), copy.getOptions());
+        assertEquals(lessCompiler.getLessJs(), copy.getLessJs());
+        assertEquals(lessCompiler.getLesscJs(), copy.getLesscJs());
+        assertEquals(Collections.singletonList(customJsFile), copy.getCustomJs());
+        assertTrue(copy.isCompress());
+        assertEquals("utf-8", copy.getEncoding());
+        assertTrue(copy.isSharedScope());
+        assertSame(cache, copy.getCache());
+        assertEquals(null, copy.getContentCache());
+        assertTrue(copy.isCoalescing());
+        assertEquals(1000, copy.getTimeout());
+        assertEquals(100000, copy.getInstructionLimit());
+        assertEquals(Collections.singletonList(listener), copy.getCompilationListeners());
+    }
+
     @Test
     public void testInit() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         
         whenNew(Global.class).withNoArguments().thenReturn(global);
         
@@ -165,10 +225,10 @@ public class LessCompilerTest {
         whenNew(InputStreamReader.class).withArguments(lessJsInputStream).thenReturn(lessJsInputStreamReader);
 
         lessCompiler.setLessJs(lessJsFile);
+        lessCompiler.setLesscJs(lessJsFile);
         lessCompiler.init();
         
-        verifyStatic();
-        Context.enter();
+        verify(contextFactory).enterContext();
         //verify(cx).setOptimizationLevel(-1);
         verify(cx).setLanguageVersion(Context.VERSION_1_7);
         
@@ -181,14 +241,14 @@ public class LessCompilerTest {
         //verify(cx).evaluateReader(scope, envJsInputStreamReader, envJsURLToString, 1, null);
         
         // verify(lessJsFile).openConnection();
-        verify(lessJsURLConnection).getInputStream();
-        verify(cx).compileReader(null, lessJsURLToString, 1, null);
+        verify(lessJsURLConnection, times(2)).getInputStream();
+        verify(cx, times(2)).compileReader(lessJsInputStreamReader, lessJsURLToString, 1, null);
     }
     
     @Test(expected = IllegalArgumentException.class)
     public void testInitThrowsIllegalArgumentExceptionWhenNotAbleToInitilize() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         
         whenNew(Global.class).withNoArguments().thenReturn(global);
         
@@ -201,8 +261,7 @@ public class LessCompilerTest {
         lessCompiler.setLessJs(lessJsFile);
         lessCompiler.init();
         
-        verifyStatic();
-        Context.enter();
+        verify(contextFactory).enterContext();
         verify(cx).setOptimizationLevel(-1);
         verify(cx).setLanguageVersion(Context.VERSION_1_7);
         
@@ -217,12 +276,12 @@ public class LessCompilerTest {
     @Test
     public void testCompileStringWhenNotInitialized() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         
         whenNew(Global.class).withNoArguments().thenReturn(global);
         
         when(cx.initStandardObjects(global)).thenReturn(scope);
-        when(cx.compileReader(null, lessJsURLToString, 1, null)).thenReturn(compiler);
+        when(cx.compileReader(lessJsInputStreamReader, lessJsURLToString, 1, null)).thenReturn(compiler);
         
         when(envJsFile.openConnection()).thenReturn(envJsURLConnection);
         when(envJsFile.toString()).thenReturn(envJsURLToString);
@@ -238,6 +297,7 @@ public class LessCompilerTest {
     	when(out.toString()).thenReturn(css);
         
         lessCompiler.setLessJs(lessJsFile);
+        lessCompiler.setLesscJs(lessJsFile);
         
         assertEquals(css, lessCompiler.compile(less));
         
@@ -254,18 +314,18 @@ public class LessCompilerTest {
         //verify(cx).evaluateReader(scope, envJsInputStreamReader, envJsURLToString, 1, null);
         
         // verify(lessJsFile).openConnection();
-        verify(lessJsURLConnection).getInputStream();
-        verify(cx).compileReader(null, lessJsURLToString, 1, null);
+        verify(lessJsURLConnection, times(2)).getInputStream();
+        verify(cx, times(2)).compileReader(lessJsInputStreamReader, lessJsURLToString, 1, null);
                 
-        verify(compiler).call(cx, compileScope, null, new Object[] {});
+        verify(compiler, times(2)).exec(cx, compileScope);
     }
     
     @Test
     public void testCompileStringToString() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         FieldUtils.writeField(lessCompiler, "scope", scope, true);
-        FieldUtils.writeField(lessCompiler, "compiler", compiler, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
         FieldUtils.writeField(lessCompiler, "out", out, true);
     	when(cx.newObject(scope)).thenReturn(compileScope);
         
@@ -273,294 +333,254 @@ public class LessCompilerTest {
         
         assertEquals(css, lessCompiler.compile(less));
         
-        verify(compiler).call(cx, compileScope, null, new Object[] {});
+        verify(compiler).exec(cx, compileScope);
     }
     
     @Test
     public void testCompileFileToString() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         FieldUtils.writeField(lessCompiler, "scope", scope, true);
-        FieldUtils.writeField(lessCompiler, "compiler", compiler, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
         FieldUtils.writeField(lessCompiler, "out", out, true);
     	when(cx.newObject(scope)).thenReturn(compileScope);
         
-        whenNew(LessSource.class).withArguments(inputFile).thenReturn(lessSource);
-        when(lessSource.getNormalizedContent()).thenReturn(less);
-        
     	when(out.toString()).thenReturn(css);
         
         assertEquals(css, lessCompiler.compile(inputFile));
         
-        verify(compiler).call(cx, compileScope, null, new Object[] {});
+        verify(compiler).exec(cx, compileScope);
     }
     
     @Test
     public void testCompileFileToFile() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         FieldUtils.writeField(lessCompiler, "scope", scope, true);
-        FieldUtils.writeField(lessCompiler, "compiler", compiler, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
         FieldUtils.writeField(lessCompiler, "out", out, true);
     	when(cx.newObject(scope)).thenReturn(compileScope);
         
-        whenNew(LessSource.class).withArguments(inputFile).thenReturn(lessSource);
-        when(lessSource.getNormalizedContent()).thenReturn(less);
-        
-    	when(out.toString()).thenReturn(css);
-        
-        mockStatic(FileUtils.class);
+        writeCssToOutput(css);
+        File outputFile = new File(folder.getRoot(), "output.css");
         
         lessCompiler.compile(inputFile, outputFile);
                 
-        verify(compiler).call(cx, compileScope, null, new Object[] {});
+        verify(compiler).exec(cx, compileScope);
         
-        verifyStatic();
-        FileUtils.writeStringToFile(outputFile, css, (String) null);
+        assertOutput(outputFile, css + "\n", null);
     }
     
     @Test
     public void testCompileFileToFileWithForceTrue() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         FieldUtils.writeField(lessCompiler, "scope", scope, true);
-        FieldUtils.writeField(lessCompiler, "compiler", compiler, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
         FieldUtils.writeField(lessCompiler, "out", out, true);
     	when(cx.newObject(scope)).thenReturn(compileScope);
         
-        whenNew(LessSource.class).withArguments(inputFile).thenReturn(lessSource);
-        when(lessSource.getNormalizedContent()).thenReturn(less);
-        
-    	when(out.toString()).thenReturn(css);
-        
-        mockStatic(FileUtils.class);
+        writeCssToOutput(css);
+        File outputFile = folder.newFile("output.css");
+        outputFile.setLastModified(2000);
+        when(inputFile.lastModified()).thenReturn(1000l);
         
         lessCompiler.compile(inputFile, outputFile, true);
                 
-        verify(compiler).call(cx, compileScope, null, new Object[] {});
+        verify(compiler).exec(cx, compileScope);
         
-        verifyStatic();
-        FileUtils.writeStringToFile(outputFile, css, (String) null);
+        assertOutput(outputFile, css + "\n", null);
     }
     
     @Test
     public void testCompileFileToFileWithForceFalseAndOutputNotExists() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         FieldUtils.writeField(lessCompiler, "scope", scope, true);
-        FieldUtils.writeField(lessCompiler, "compiler", compiler, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
         FieldUtils.writeField(lessCompiler, "out", out, true);
     	when(cx.newObject(scope)).thenReturn(compileScope);
         
-        when(outputFile.exists()).thenReturn(false);
-        
-        whenNew(LessSource.class).withArguments(inputFile).thenReturn(lessSource);
-        when(lessSource.getNormalizedContent()).thenReturn(less);
-        
-    	when(out.toString()).thenReturn(css);
-        
-        mockStatic(FileUtils.class);
+        writeCssToOutput(css);
+        File outputFile = new File(folder.getRoot(), "css/output.css");
         
         lessCompiler.compile(inputFile, outputFile, false);
-        
-        verify(outputFile).exists();
                 
-        verify(compiler).call(cx, compileScope, null, new Object[] {});
+        verify(compiler).exec(cx, compileScope);
         
-        verifyStatic();
-        FileUtils.writeStringToFile(outputFile, css, (String) null);
+        assertOutput(outputFile, css + "\n", null);
     }
     
     @Test
     public void testCompileFileToFileWithForceFalseAndOutputExistsAndLessSourceModified() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         FieldUtils.writeField(lessCompiler, "scope", scope, true);
-        FieldUtils.writeField(lessCompiler, "compiler", compiler, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
         FieldUtils.writeField(lessCompiler, "out", out, true);
     	when(cx.newObject(scope)).thenReturn(compileScope);
         
-        when(outputFile.exists()).thenReturn(true);
-        when(outputFile.lastModified()).thenReturn(1l);
-        
-        when(inputFile.lastModified()).thenReturn(2l);
-                
-    	when(out.toString()).thenReturn(css);
-        
-        mockStatic(FileUtils.class);
+        writeCssToOutput(css);
+        File outputFile = folder.newFile("output.css");
+        outputFile.setLastModified(1000);
+        when(inputFile.lastModified()).thenReturn(2000l);
         
         lessCompiler.compile(inputFile, outputFile, false);
+        
+        verify(inputFile).lastModified();
                 
-        verify(outputFile).exists();
-        verify(outputFile).lastModified();
-                
-        verify(compiler).call(cx, compileScope, null, new Object[] {});
+        verify(compiler).exec(cx, compileScope);
         
-        verifyStatic();
-        FileUtils.writeStringToFile(outputFile, css, (String) null);
+        assertOutput(outputFile, css + "\n", null);
     }
     
     @Test
     public void testCompileFileToFileWithForceFalseAndOutputExistsAndLessSourceNotModified() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         FieldUtils.writeField(lessCompiler, "scope", scope, true);
-        FieldUtils.writeField(lessCompiler, "compiler", compiler, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
         FieldUtils.writeField(lessCompiler, "out", out, true);
     	when(cx.newObject(scope)).thenReturn(compileScope);
         
-        whenNew(LessSource.class).withArguments(inputFile).thenReturn(lessSource);
-        
         when(outputFile.exists()).thenReturn(true);
         when(outputFile.lastModified()).thenReturn(2l);
         
-        when(lessSource.getLastModifiedIncludingImports()).thenReturn(1l);
+        when(inputFile.lastModified()).thenReturn(1l);
         
         lessCompiler.compile(inputFile, outputFile, false);
                 
         verify(outputFile).exists();
         verify(outputFile).lastModified();
         
+        verify(compiler, never()).exec(cx, compileScope);
     }
     
     @Test
     public void testCompileLessSourceToString() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         FieldUtils.writeField(lessCompiler, "scope", scope, true);
-        FieldUtils.writeField(lessCompiler, "compiler", compiler, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
         FieldUtils.writeField(lessCompiler, "out", out, true);
     	when(cx.newObject(scope)).thenReturn(compileScope);
         
-        when(lessSource.getNormalizedContent()).thenReturn(less);
+        when(lessSource.getContent()).thenReturn(less);
         
     	when(out.toString()).thenReturn(css);
         
         assertEquals(css, lessCompiler.compile(lessSource));
         
-        verify(lessSource).getNormalizedContent();
+        verify(lessSource).getContent();
+        verify(lessSource).getImports();
         
-        verify(compiler).call(cx, compileScope, null, new Object[] {});
+        verify(compiler).exec(cx, compileScope);
+        verify(compileScope).defineProperty("lessInput", less, ScriptableObject.DONTENUM);
     }
     
     @Test
     public void testCompileLessSourceToFile() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         FieldUtils.writeField(lessCompiler, "scope", scope, true);
-        FieldUtils.writeField(lessCompiler, "compiler", compiler, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
         FieldUtils.writeField(lessCompiler, "out", out, true);
     	when(cx.newObject(scope)).thenReturn(compileScope);
         
-        when(lessSource.getNormalizedContent()).thenReturn(less);
+        when(lessSource.getContent()).thenReturn(less);
         
-    	when(out.toString()).thenReturn(css);
-        
-        mockStatic(FileUtils.class);
+        writeCssToOutput(css);
+        File outputFile = new File(folder.getRoot(), "output.css");
         
         lessCompiler.compile(lessSource, outputFile);
         
-        verify(lessSource).getNormalizedContent();
+        verify(lessSource).getContent();
         
-        verify(compiler).call(cx, compileScope, null, new Object[] {});
+        verify(compiler).exec(cx, compileScope);
         
-        verifyStatic();
-        FileUtils.writeStringToFile(outputFile, css, (String) null);
+        assertOutput(outputFile, css + "\n", null);
     }
 
     @Test
     public void testCompileLessSourceToFileWithForceTrue() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         FieldUtils.writeField(lessCompiler, "scope", scope, true);
-        FieldUtils.writeField(lessCompiler, "compiler", compiler, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
         FieldUtils.writeField(lessCompiler, "out", out, true);
     	when(cx.newObject(scope)).thenReturn(compileScope);
         
-        when(lessSource.getNormalizedContent()).thenReturn(less);
+        when(lessSource.getContent()).thenReturn(less);
         
-    	when(out.toString()).thenReturn(css);
-        
-        mockStatic(FileUtils.class);
+        writeCssToOutput(css);
+        File outputFile = folder.newFile("output.css");
+        outputFile.setLastModified(2000);
+        when(lessSource.getLastModifiedIncludingImports()).thenReturn(1000l);
         
         lessCompiler.compile(lessSource, outputFile, true);
         
-        verify(lessSource).getNormalizedContent();
+        verify(lessSource).getContent();
         
-        verify(compiler).call(cx, compileScope, null, new Object[] {});
+        verify(compiler).exec(cx, compileScope);
         
-        verifyStatic();
-        FileUtils.writeStringToFile(outputFile, css, (String) null);
+        assertOutput(outputFile, css + "\n", null);
     }
     
     @Test
     public void testCompileLessSourceToFileWithForceFalseAndOutputNotExists() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         FieldUtils.writeField(lessCompiler, "scope", scope, true);
-        FieldUtils.writeField(lessCompiler, "compiler", compiler, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
         FieldUtils.writeField(lessCompiler, "out", out, true);
     	when(cx.newObject(scope)).thenReturn(compileScope);
         
-        when(outputFile.exists()).thenReturn(false);
-        
-        when(lessSource.getNormalizedContent()).thenReturn(less);
+        when(lessSource.getContent()).thenReturn(less);
         
-    	when(out.toString()).thenReturn(css);
-        
-        mockStatic(FileUtils.class);
+        writeCssToOutput(css);
+        File outputFile = new File(folder.getRoot(), "css/output.css");
         
         lessCompiler.compile(lessSource, outputFile, false);
         
-        verify(outputFile).exists();
+        verify(lessSource).getContent();
         
-        verify(lessSource).getNormalizedContent();
+        verify(compiler).exec(cx, compileScope);
         
-        verify(compiler).call(cx, compileScope, null, new Object[] {});
-        
-        verifyStatic();
-        FileUtils.writeStringToFile(outputFile, css, (String) null);
+        assertOutput(outputFile, css + "\n", null);
     }
     
     @Test
     public void testCompileLessSourceToFileWithForceFalseAndOutputExistsAndLessSourceModified() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         FieldUtils.writeField(lessCompiler, "scope", scope, true);
-        FieldUtils.writeField(lessCompiler, "compiler", compiler, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
         FieldUtils.writeField(lessCompiler, "out", out, true);
     	when(cx.newObject(scope)).thenReturn(compileScope);
         
-        when(outputFile.exists()).thenReturn(true);
-        when(outputFile.lastModified()).thenReturn(1l);
-        
-        when(lessSource.getLastModifiedIncludingImports()).thenReturn(2l);
-        when(lessSource.getNormalizedContent()).thenReturn(less);
+        writeCssToOutput(css);
+        File outputFile = folder.newFile("output.css");
+        outputFile.setLastModified(1000);
         
-    	when(out.toString()).thenReturn(css);
-        
-        mockStatic(FileUtils.class);
+        when(lessSource.getLastModifiedIncludingImports()).thenReturn(2000l);
+        when(lessSource.getContent()).thenReturn(less);
         
         lessCompiler.compile(lessSource, outputFile, false);
         
-        verify(outputFile).exists();
-        verify(outputFile).lastModified();
-        
         verify(lessSource).getLastModifiedIncludingImports();
-        verify(lessSource).getNormalizedContent();
+        verify(lessSource).getContent();
         
-        verify(compiler).call(cx, compileScope, null, new Object[] {});
+        verify(compiler).exec(cx, compileScope);
         
-        verifyStatic();
-        FileUtils.writeStringToFile(outputFile, css, (String) null);
+        assertOutput(outputFile, css + "\n", null);
     }
     
     @Test
     public void testCompileLessSourceToFileWithForceFalseAndOutputExistsAndLessSourceNotModified() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         FieldUtils.writeField(lessCompiler, "scope", scope, true);
-        FieldUtils.writeField(lessCompiler, "compiler", compiler, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
         FieldUtils.writeField(lessCompiler, "out", out, true);
     	when(cx.newObject(scope)).thenReturn(compileScope);
         
@@ -575,19 +595,42 @@ public class LessCompilerTest {
         verify(outputFile).lastModified();
         
         verify(lessSource).getLastModifiedIncludingImports();
+        
+        verify(compiler, never()).exec(cx, compileScope);
+    }
+    
+    @Test
+    public void testCompileToFileLeavesNoOutputWhenCompilationFails() throws Exception {
+        mockStatic(Context.class);
+        when(contextFactory.enterContext()).thenReturn(cx);
+        FieldUtils.writeField(lessCompiler, "scope", scope, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
+        FieldUtils.writeField(lessCompiler, "out", out, true);
+    	when(cx.newObject(scope)).thenReturn(compileScope);
+        
+        doThrow(new JavaScriptException(null, null, 0)).when(compiler).exec(cx, compileScope);
+        File outputFile = new File(folder.getRoot(), "output.css");
+        
+        try {
+            lessCompiler.compile(inputFile, outputFile);
+            fail("Expected a LessException");
+        } catch (LessException e) {
+            // the temporary file is deleted and the output is not created
+            assertEquals(0, folder.getRoot().list().length);
+        }
     }
     
     @Test(expected = LessException.class)
     public void testCompileThrowsLessExceptionWhenCompilationFails() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         FieldUtils.writeField(lessCompiler, "scope", scope, true);
-        FieldUtils.writeField(lessCompiler, "compiler", compiler, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
         FieldUtils.writeField(lessCompiler, "out", out, true);
     	when(cx.newObject(scope)).thenReturn(compileScope);
         
         JavaScriptException javaScriptException = new JavaScriptException(null, null, 0);
-        when(compiler.call(cx, compileScope, null, new Object[] {})).thenThrow(javaScriptException);
+        doThrow(javaScriptException).when(compiler).exec(cx, compileScope);
         
         assertEquals(css, lessCompiler.compile(less));
     }
@@ -595,10 +638,10 @@ public class LessCompilerTest {
     @Test
     public void testCompress() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         lessCompiler.setCompress(true);
         FieldUtils.writeField(lessCompiler, "scope", scope, true);
-        FieldUtils.writeField(lessCompiler, "compiler", compiler, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
         FieldUtils.writeField(lessCompiler, "out", out, true);
     	when(cx.newObject(scope)).thenReturn(compileScope);
         
@@ -606,31 +649,135 @@ public class LessCompilerTest {
         
         assertEquals(css, lessCompiler.compile(less));
         
-        verify(compiler).call(cx, compileScope, null, new Object[] {});
+        verify(compiler).exec(cx, compileScope);
     }
     
     @Test
     public void testEncoding() throws Exception {
         mockStatic(Context.class);
-        when(Context.enter()).thenReturn(cx);
+        when(contextFactory.enterContext()).thenReturn(cx);
         lessCompiler.setEncoding("utf-8");
         FieldUtils.writeField(lessCompiler, "scope", scope, true);
-        FieldUtils.writeField(lessCompiler, "compiler", compiler, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
         FieldUtils.writeField(lessCompiler, "out", out, true);
     	when(cx.newObject(scope)).thenReturn(compileScope);
         
-        whenNew(LessSource.class).withArguments(inputFile).thenReturn(lessSource);
-        when(lessSource.getNormalizedContent()).thenReturn(less);
-        
-    	when(out.toString("utf-8")).thenReturn(css);
-        
-        mockStatic(FileUtils.class);
+        String css = "a:after { content: \"é\"; }";
+        writeCssToOutput(css);
+        File outputFile = new File(folder.getRoot(), "output.css");
         
         lessCompiler.compile(inputFile, outputFile);
                 
-        verify(compiler).call(cx, compileScope, null, new Object[] {});
+        verify(compiler).exec(cx, compileScope);
         
-        verifyStatic();
-        FileUtils.writeStringToFile(outputFile, css, "utf-8");
+        assertOutput(outputFile, css + "\n", "utf-8");
+    }
+    
+    @Test
+    public void testCompileThrowsCompilationAbortedExceptionWhenAborted() throws Exception {
+        mockStatic(Context.class);
+        when(contextFactory.enterContext()).thenReturn(cx);
+        FieldUtils.writeField(lessCompiler, "scope", scope, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
+        FieldUtils.writeField(lessCompiler, "out", out, true);
+        when(cx.newObject(scope)).thenReturn(compileScope);
+        
+        doThrow(new Compilation.Aborted(CompilationAbortedException.Reason.TIMEOUT, "took longer than 10 ms"))
+                .when(compiler).exec(cx, compileScope);
+        
+        try {
+            lessCompiler.compile(less);
+            fail("Expected a CompilationAbortedException");
+        } catch (CompilationAbortedException e) {
+            assertEquals(CompilationAbortedException.Reason.TIMEOUT, e.getReason());
+            assertEquals("Compilation of <inline> took longer than 10 ms.", e.getMessage());
+        }
+        verify(out).reset();
+    }
+    
+    @Test
+    public void testCompileIsCancelledWhenThreadIsInterrupted() throws Exception {
+        assertEquals(CompilationAbortedException.Reason.CANCELLED, compileObservingInstructions(new Runnable() {
+            public void run() {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        // the interrupt is left for the caller
+        assertTrue(Thread.interrupted());
+    }
+    
+    @Test
+    public void testCompileIsAbortedAtInstructionLimit() throws Exception {
+        lessCompiler.setInstructionLimit(LessContextFactory.INSTRUCTION_THRESHOLD);
+        assertEquals(CompilationAbortedException.Reason.INSTRUCTION_LIMIT, compileObservingInstructions(null));
+    }
+    
+    @Test
+    public void testCompileIsAbortedAtTimeout() throws Exception {
+        lessCompiler.setTimeout(1);
+        assertEquals(CompilationAbortedException.Reason.TIMEOUT, compileObservingInstructions(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }));
+    }
+    
+    /**
+     * Compiles with a script that runs <code>before</code>, then reports instructions twice like the context
+     * factory does, and returns the reason the compilation was aborted.
+     */
+    private CompilationAbortedException.Reason compileObservingInstructions(final Runnable before) throws Exception {
+        mockStatic(Context.class);
+        when(contextFactory.enterContext()).thenReturn(cx);
+        FieldUtils.writeField(lessCompiler, "scope", scope, true);
+        FieldUtils.writeField(lessCompiler, "scripts", Collections.singletonList(compiler), true);
+        FieldUtils.writeField(lessCompiler, "out", out, true);
+        when(cx.newObject(scope)).thenReturn(compileScope);
+        
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) {
+                if (before != null) {
+                    before.run();
+                }
+                Compilation.running().observeInstructions(LessContextFactory.INSTRUCTION_THRESHOLD);
+                Compilation.running().observeInstructions(LessContextFactory.INSTRUCTION_THRESHOLD);
+                return null;
+            }
+        }).when(compiler).exec(cx, compileScope);
+        
+        try {
+            lessCompiler.compile(less);
+            fail("Expected a CompilationAbortedException");
+            return null;
+        } catch (CompilationAbortedException e) {
+            return e.getReason();
+        }
+    }
+    
+    /**
+     * Makes the script write <code>css</code> to the output in the compile scope, like the LESSC script does when the
+     * CSS is streamed to a file.
+     */
+    private void writeCssToOutput(final String css) throws Exception {
+        when(Context.toString(css)).thenReturn(css);
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) {
+                ArgumentCaptor<Object> output = ArgumentCaptor.forClass(Object.class);
+                verify(compileScope).defineProperty(eq("lessOutput"), output.capture(), anyInt());
+                return ((Function) output.getValue()).call(cx, compileScope, null, new Object[] {css});
+            }
+        }).when(compiler).exec(cx, compileScope);
+    }
+    
+    /**
+     * Asserts that <code>outputFile</code> contains <code>css</code> and that no temporary file is left next to it.
+     */
+    private static void assertOutput(File outputFile, String css, String encoding) throws IOException {
+        assertEquals(css, FileUtils.readFileToString(outputFile, encoding));
+        assertEquals(Collections.singletonList(outputFile.getName()), Arrays.asList(outputFile.getParentFile().list()));
     }
 }
@@ -0,0 +1,4 @@
+less.tree.functions.deprecated = function (value) {
+    console.warn("%s is deprecated", value.toCSS(this.env));
+    return value;
+};